@@ -29,6 +29,7 @@ import com.jcwhatever.nucleus.utils.coords.ICoords3Di;
 import com.jcwhatever.nucleus.utils.managers.INamedManager;
 
 import org.bukkit.World;
+import org.bukkit.entity.Player;
 
 import java.util.Collection;
 import javax.annotation.Nullable;
@@ -58,6 +59,25 @@ public interface IBlockContextManager extends INamedManager<IPhantomBlockContext
     @Nullable
     IPhantomBlock getBlockAt(World world, int x, int y, int z);
 
+    /**
+     * Get the phantom block a player sees at a location.
+     *
+     * <p>If more than one context the player can see has a block at the location,
+     * the block from the context with the highest priority is returned.</p>
+     *
+     * <p>Safe to invoke from network threads. Blocks are read from the published
+     * state of the contexts.</p>
+     *
+     * @param player  The player.
+     * @param x       The X coordinates of the block.
+     * @param y       The Y coordinates of the block.
+     * @param z       The Z coordinates of the block.
+     *
+     * @return  The phantom block or null if the player does not see a phantom block.
+     */
+    @Nullable
+    IPhantomBlock getVisibleBlockAt(Player player, int x, int y, int z);
+
     /**
      * Get phantom block at a location.
      *
@@ -72,6 +92,8 @@ public interface IBlockContextManager extends INamedManager<IPhantomBlockContext
     /**
      * Get all phantom block contexts that have blocks inside the specified chunk.
      *
+     * <p>The contexts are ordered by ascending priority.</p>
+     *
      * @param world   The world.
      * @param chunkX  The chunk X coordinate.
      * @param chunkZ  The chunk Z coordinate.
@@ -85,4 +107,25 @@ public interface IBlockContextManager extends INamedManager<IPhantomBlockContext
      * @param coords  The chunk coordinates.
      */
     Collection<IPhantomBlockContext> getChunkContexts(World world, ICoords2Di coords);
+
+    /**
+     * Update the chunk index of a context.
+     *
+     * <p>Invoked by a context when it creates a phantom chunk or when a phantom
+     * chunk no longer contains blocks. Updates for contexts that are not
+     * registered with the manager are ignored.</p>
+     *
+     * @param context    The context.
+     * @param chunkX     The chunk X coordinate.
+     * @param chunkZ     The chunk Z coordinate.
+     * @param hasBlocks  True if the context has blocks in the chunk, otherwise false.
+     */
+    void updateChunkIndex(IPhantomBlockContext context, int chunkX, int chunkZ, boolean hasBlocks);
+
+    /**
+     * Rebuild the chunk index entries of a context from its current phantom chunks.
+     *
+     * @param context  The context.
+     */
+    void reindex(IPhantomBlockContext context);
 }
@@ -27,10 +27,12 @@ package com.jcwhatever.phantom;
 import com.comphenix.protocol.events.PacketContainer;
 import com.jcwhatever.nucleus.mixins.IDisposable;
 import com.jcwhatever.nucleus.mixins.INamedInsensitive;
+import com.jcwhatever.phantom.data.IChunkData;
 import com.jcwhatever.phantom.packets.IMultiBlockChangePacket;
 import org.bukkit.World;
 import org.bukkit.entity.Player;
 
+import java.util.Collection;
 import javax.annotation.Nullable;
 
 /**
@@ -48,6 +50,22 @@ public interface IPhantomBlockContext extends IViewable, INamedInsensitive, IDis
      */
     IBlockContextManager getManager();
 
+    /**
+     * Get the priority of the context.
+     *
+     * <p>Where contexts overlap, blocks from a context with a higher priority are
+     * shown over blocks from contexts with a lower priority. Contexts with the
+     * same priority are ordered by name.</p>
+     */
+    int getPriority();
+
+    /**
+     * Set the priority of the context.
+     *
+     * @param priority  The priority.
+     */
+    void setPriority(int priority);
+
     /**
      * Determine if the context ignores phantom air blocks.
      */
@@ -84,6 +102,17 @@ public interface IPhantomBlockContext extends IViewable, INamedInsensitive, IDis
      */
     void translateMapChunkBulk(Player player, PacketContainer packet);
 
+    /**
+     * Translate phantom block data into parsed chunk data.
+     *
+     * <p>Used to translate chunk data that has already been parsed from a
+     * chunk or bulk chunk packet.</p>
+     *
+     * @param player     The player the packet is being sent to.
+     * @param chunkData  The chunk data.
+     */
+    void translateChunkData(Player player, IChunkData chunkData);
+
     /**
      * Get a phantom block from the specified coordinates.
      *
@@ -102,6 +131,8 @@ public interface IPhantomBlockContext extends IViewable, INamedInsensitive, IDis
     /**
      * Get a phantom block from the specified coordinates.
      *
+     * <p>Must be invoked from the main thread.</p>
+     *
      * @param x  The world X coordinates.
      * @param y  The world Y coordinates.
      * @param z  The world Z coordinates.
@@ -111,6 +142,22 @@ public interface IPhantomBlockContext extends IViewable, INamedInsensitive, IDis
     @Nullable
     IPhantomBlock getPhantomBlock(int x, int y, int z);
 
+    /**
+     * Get a phantom block from the published state of the context.
+     *
+     * <p>Safe to invoke from network threads. The material and data of the
+     * returned block are those that were published and are not updated by
+     * later changes.</p>
+     *
+     * @param x  The world X coordinates.
+     * @param y  The world Y coordinates.
+     * @param z  The world Z coordinates.
+     *
+     * @return  The phantom block or null if one is not published.
+     */
+    @Nullable
+    IPhantomBlock getPublishedBlock(int x, int y, int z);
+
     /**
      * Get a phantom chunk from the context.
      *
@@ -122,4 +169,18 @@ public interface IPhantomBlockContext extends IViewable, INamedInsensitive, IDis
      */
     @Nullable
     IPhantomChunk getPhantomChunk(int x, int z);
+
+    /**
+     * Get all phantom chunks in the context.
+     *
+     * @return  A new collection of the phantom chunks.
+     */
+    Collection<IPhantomChunk> getPhantomChunks();
+
+    /**
+     * Begin a batch of block changes.
+     *
+     * <p>The changes are not applied until the returned session is committed.</p>
+     */
+    IPhantomEditSession beginEdit();
 }
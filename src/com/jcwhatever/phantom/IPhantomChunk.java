@@ -24,8 +24,11 @@
 
 package com.jcwhatever.phantom;
 
+import com.jcwhatever.phantom.data.ChunkOverlay;
+
 import org.bukkit.World;
 
+import java.util.Iterator;
 import javax.annotation.Nullable;
 
 /**
@@ -59,9 +62,27 @@ public interface IPhantomChunk extends Iterable<IPhantomBlock> {
      */
     int totalBlocks();
 
+    /**
+     * Get the revision number of the chunk.
+     *
+     * <p>The revision changes whenever changes to the visible blocks in the
+     * chunk are published to packet handlers.</p>
+     */
+    int getRevision();
+
+    /**
+     * Get the pre-encoded block data of the most recently published
+     * revision of the chunk.
+     *
+     * <p>Safe to call from any thread. The returned overlay must not be modified.</p>
+     */
+    ChunkOverlay getOverlay();
+
     /**
      * Get a phantom block from within the chunk.
      *
+     * <p>Must be invoked from the main thread.</p>
+     *
      * @param relativeX  The X coordinates relative to the chunk.
      * @param y          The Y coordinates.
      * @param relativeZ  The Z coordinates relative to the chunk.
@@ -70,4 +91,14 @@ public interface IPhantomChunk extends Iterable<IPhantomBlock> {
      */
     @Nullable
     IPhantomBlock getRelativeBlock(int relativeX, int y, int relativeZ);
+
+    /**
+     * Iterate over the phantom blocks in the chunk.
+     *
+     * <p>The returned block instance may be reused between calls to
+     * {@link Iterator#next}. Use {@link #getRelativeBlock} to get a block
+     * instance that can be kept.</p>
+     */
+    @Override
+    Iterator<IPhantomBlock> iterator();
 }
@@ -0,0 +1,78 @@
+/*
+ * This file is part of PhantomPackets for Bukkit, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) JCThePants (www.jcwhatever.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jcwhatever.phantom;
+
+import org.bukkit.Material;
+
+/**
+ * A batch of block changes to a phantom block context.
+ *
+ * <p>Changes are staged in the session and are not visible until the session
+ * is committed. Committing writes the changes to the context, invalidates each
+ * changed chunk once and queues a single update per chunk for each viewer. The
+ * updates are sent by the context's packet queue within its per tick budgets, so
+ * large edits may reach viewers over several ticks.</p>
+ *
+ * <p>Sessions must be used from the main thread.</p>
+ */
+public interface IPhantomEditSession {
+
+    /**
+     * Get the context the session edits.
+     */
+    IPhantomBlockContext getContext();
+
+    /**
+     * Stage a block change.
+     *
+     * <p>Setting the same block more than once keeps the last value.</p>
+     *
+     * @param x         The world X coordinates.
+     * @param y         The world Y coordinates.
+     * @param z         The world Z coordinates.
+     * @param material  The block material.
+     * @param data      The block data.
+     *
+     * @throws IllegalStateException if the session is already committed.
+     */
+    void set(int x, int y, int z, Material material, int data);
+
+    /**
+     * Get the number of blocks staged.
+     */
+    int size();
+
+    /**
+     * Determine if the session has been committed.
+     */
+    boolean isCommitted();
+
+    /**
+     * Write the staged changes to the context and send them to viewers.
+     *
+     * @throws IllegalStateException if the session is already committed.
+     */
+    void commit();
+}
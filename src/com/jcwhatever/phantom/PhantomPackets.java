@@ -26,7 +26,9 @@ package com.jcwhatever.phantom;
 
 import com.comphenix.protocol.ProtocolLibrary;
 import com.jcwhatever.phantom.blocks.BlockContextManager;
+import com.jcwhatever.phantom.blocks.BlocksEventListener;
 import com.jcwhatever.phantom.blocks.BlocksProtocolListener;
+import com.jcwhatever.phantom.blocks.ParallelChunkTranslator;
 import com.jcwhatever.phantom.commands.AddCommand;
 import com.jcwhatever.phantom.commands.DelCommand;
 import com.jcwhatever.phantom.commands.HideCommand;
@@ -37,6 +39,7 @@ import com.jcwhatever.phantom.commands.RestoreCommand;
 import com.jcwhatever.phantom.commands.SaveCommand;
 import com.jcwhatever.phantom.commands.ShowCommand;
 import com.jcwhatever.phantom.entities.PhantomEntitiesManager;
+import com.jcwhatever.phantom.light.LightEngine;
 import com.jcwhatever.phantom.light.LightManager;
 import com.jcwhatever.phantom.nms.INmsHandler;
 import com.jcwhatever.phantom.blocks.regions.PhantomRegionManager;
@@ -67,6 +70,8 @@ public class PhantomPackets extends NucleusPlugin {
     private PhantomEntitiesManager _entitiesManager;
     private BlockContextManager _contextManager;
     private LightManager _lightManager;
+    private LightEngine _lightEngine;
+    private ParallelChunkTranslator _bulkTranslator;
     private IScriptApi _scriptApi;
 
     private NmsManager _reflectionManager;
@@ -128,10 +133,15 @@ public class PhantomPackets extends NucleusPlugin {
         _contextManager = new BlockContextManager();
         _regionManager = new PhantomRegionManager();
         _entitiesManager = new PhantomEntitiesManager();
-        _lightManager = new LightManager();
+        _lightEngine = new LightEngine();
+        _lightManager = new LightManager(getDataNode().getNode("light-updates"), _lightEngine);
+
+        _bulkTranslator = new ParallelChunkTranslator(getDataNode().getNode("bulk-translation"));
 
         ProtocolLibrary.getProtocolManager()
-                .addPacketListener(new BlocksProtocolListener(_contextManager));
+                .addPacketListener(new BlocksProtocolListener(_contextManager, _bulkTranslator));
+
+        Bukkit.getPluginManager().registerEvents(new BlocksEventListener(_contextManager), this);
 
         registerCommand(AddCommand.class);
         registerCommand(DelCommand.class);
@@ -159,6 +169,12 @@ public class PhantomPackets extends NucleusPlugin {
         if (_regionManager != null)
             _regionManager.dispose();
 
+        if (_bulkTranslator != null)
+            _bulkTranslator.dispose();
+
+        if (_lightEngine != null)
+            _lightEngine.dispose();
+
         if (_scriptApi != null)
             Nucleus.getScriptApiRepo().unregisterApi(_scriptApi);
     }
@@ -27,13 +27,17 @@ package com.jcwhatever.phantom;
 import com.comphenix.protocol.ProtocolLibrary;
 import com.comphenix.protocol.ProtocolManager;
 import com.comphenix.protocol.events.PacketContainer;
-import com.comphenix.protocol.reflect.StructureModifier;
 import com.jcwhatever.nucleus.utils.PreCon;
 
-import org.bukkit.Bukkit;
-import org.bukkit.Location;
 import org.bukkit.Material;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Static utilities.
  */
@@ -42,6 +46,7 @@ public class Utils {
     private Utils() {}
 
     private static final ProtocolManager _protocolManager = ProtocolLibrary.getProtocolManager();
+    private static final Map<Class<?>, Field[]> _packetFields = new ConcurrentHashMap<>(10);
 
     /**
      * Get legacy integer ID for a material and data.
@@ -92,6 +97,24 @@ public class Utils {
         return (typeId & 0xFFF) | ((data & 0xF) << 12);
     }
 
+    /**
+     * Convert a combined ID to a legacy ID.
+     *
+     * @param id  The combined ID.
+     */
+    public static int getLegacyIdFromCombinedId(int id) {
+        return ((id & 0xFFF) << 4) | ((id >> 12) & 0xF);
+    }
+
+    /**
+     * Convert a legacy ID to a combined ID.
+     *
+     * @param id  The legacy ID.
+     */
+    public static int getCombinedIdFromLegacyId(int id) {
+        return ((id >> 4) & 0xFFF) | ((id & 0xF) << 12);
+    }
+
     /**
      * Extract {@link Material} from a combined ID.
      *
@@ -112,39 +135,50 @@ public class Utils {
     }
 
     /**
-     * Determine if a chunk is within viewing distance of a location.
+     * Partially clone a packet.
      *
-     * @param chunkX    The chunk X coordinates.
-     * @param chunkZ    The chunk Z coordinates.
-     * @param location  The location.
+     * @param packet  The packet to clone.
      */
-    public static boolean isChunkNearby(int chunkX, int chunkZ, Location location) {
-        PreCon.notNull(location);
+    public static PacketContainer clonePacket(PacketContainer packet) {
+        PacketContainer clone = _protocolManager.createPacket(packet.getType());
 
-        int locChunkX = location.getBlockX() >> 4;
-        int locChunkZ = location.getBlockZ() >> 4;
+        Object source = packet.getHandle();
+        Object dest = clone.getHandle();
 
-        int viewDistance = Bukkit.getServer().getViewDistance();
+        try {
+            for (Field field : getPacketFields(source.getClass())) {
+                field.set(dest, field.get(source));
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Failed to clone packet.", e);
+        }
 
-        return Math.abs(chunkX - locChunkX) <= viewDistance &&
-               Math.abs(chunkZ - locChunkZ) <= viewDistance;
+        return clone;
     }
 
-    /**
-     * Partially clone a packet.
-     *
-     * @param packet  The packet to clone.
+    /*
+     * Get the accessible non-static fields of a packet class. Resolved
+     * once per class.
      */
-    public static PacketContainer clonePacket(PacketContainer packet) {
-        PacketContainer clone = _protocolManager.createPacket(packet.getType());
+    private static Field[] getPacketFields(Class<?> packetClass) {
+
+        Field[] fields = _packetFields.get(packetClass);
+        if (fields != null)
+            return fields;
 
-        StructureModifier<Object> source = packet.getModifier();
-        StructureModifier<Object> dest = clone.getModifier();
+        List<Field> result = new ArrayList<>(10);
 
-        for (int i=0; i < source.size(); i++) {
-            dest.write(i, source.read(i));
+        for (Field field : packetClass.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()))
+                continue;
+
+            field.setAccessible(true);
+            result.add(field);
         }
 
-        return clone;
+        fields = result.toArray(new Field[result.size()]);
+        _packetFields.put(packetClass, fields);
+
+        return fields;
     }
 }
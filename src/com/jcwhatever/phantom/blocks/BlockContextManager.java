@@ -24,11 +24,8 @@
 
 package com.jcwhatever.phantom.blocks;
 
-import com.google.common.collect.Multimap;
-import com.google.common.collect.MultimapBuilder;
 import com.jcwhatever.nucleus.collections.ElementCounter;
 import com.jcwhatever.nucleus.collections.ElementCounter.RemovalPolicy;
-import com.jcwhatever.nucleus.utils.CollectionUtils;
 import com.jcwhatever.nucleus.utils.PreCon;
 import com.jcwhatever.nucleus.utils.coords.ICoords2Di;
 import com.jcwhatever.nucleus.utils.coords.ICoords3Di;
@@ -37,12 +34,19 @@ import com.jcwhatever.phantom.IBlockContextManager;
 import com.jcwhatever.phantom.IPhantomBlock;
 import com.jcwhatever.phantom.IPhantomBlockContext;
 import com.jcwhatever.phantom.IPhantomChunk;
+import com.jcwhatever.phantom.PhantomPackets;
+import com.jcwhatever.phantom.collections.LongHashMap;
 
 import org.bukkit.World;
+import org.bukkit.entity.Player;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.annotation.Nullable;
 
 /**
@@ -51,9 +55,30 @@ import javax.annotation.Nullable;
 public class BlockContextManager extends NamedInsensitiveManager<IPhantomBlockContext>
         implements IBlockContextManager {
 
+    // orders contexts by ascending priority so higher priority contexts are applied last
+    private static final Comparator<IPhantomBlockContext> PRIORITY_ORDER =
+            new Comparator<IPhantomBlockContext>() {
+                @Override
+                public int compare(IPhantomBlockContext o1, IPhantomBlockContext o2) {
+                    int result = Integer.compare(o1.getPriority(), o2.getPriority());
+                    return result != 0
+                            ? result
+                            : o1.getSearchName().compareTo(o2.getSearchName());
+                }
+            };
+
     private final ElementCounter<World> _worlds = new ElementCounter<World>(RemovalPolicy.REMOVE);
-    private final Multimap<World, IPhantomBlockContext> _worldContexts =
-            MultimapBuilder.hashKeys().arrayListValues().build();
+
+    // per world index of chunk key to the immutable list of contexts with blocks in the chunk
+    private final Map<World, LongHashMap<List<IPhantomBlockContext>>> _chunkIndex =
+            new ConcurrentHashMap<>(5);
+
+    private final ChunkOverlayCache _overlayCache = new ChunkOverlayCache(256);
+    private final PacketQueue _packetQueue = new PacketQueue(this,
+            PhantomPackets.getPlugin().getDataNode().getNode("packet-queue"));
+    private final ClientChunkTracker _chunkTracker = new ClientChunkTracker();
+    private final ResendPolicy _resendPolicy = new ResendPolicy(
+            PhantomPackets.getPlugin().getDataNode().getNode("resend"));
 
     @Override
     public boolean add(IPhantomBlockContext context) {
@@ -61,7 +86,7 @@ public class BlockContextManager extends NamedInsensitiveManager<IPhantomBlockCo
 
         if (super.add(context)) {
             _worlds.add(context.getWorld());
-            _worldContexts.put(context.getWorld(), context);
+            indexChunks(context);
             return true;
         }
 
@@ -78,7 +103,7 @@ public class BlockContextManager extends NamedInsensitiveManager<IPhantomBlockCo
 
         if (super.remove(name)) {
             _worlds.subtract(context.getWorld());
-            _worldContexts.remove(context.getWorld(), context);
+            unindexChunks(context);
             return true;
         }
 
@@ -116,11 +141,10 @@ public class BlockContextManager extends NamedInsensitiveManager<IPhantomBlockCo
     public IPhantomBlock getBlockAt(World world, int x, int y, int z) {
         PreCon.notNull(world);
 
-        Collection<IPhantomBlockContext> contexts = _worldContexts.get(world);
-        if (contexts.isEmpty())
-            return null;
+        List<IPhantomBlockContext> contexts = getIndexed(world, x >> 4, z >> 4);
 
-        for (IPhantomBlockContext context : contexts) {
+        for (int i = contexts.size() - 1; i >= 0; i--) {
+            IPhantomBlockContext context = contexts.get(i);
             IPhantomBlock block = context.getPhantomBlock(x, y, z);
             if (block == null)
                 continue;
@@ -131,6 +155,29 @@ public class BlockContextManager extends NamedInsensitiveManager<IPhantomBlockCo
         return null;
     }
 
+    @Nullable
+    @Override
+    public IPhantomBlock getVisibleBlockAt(Player player, int x, int y, int z) {
+        PreCon.notNull(player);
+
+        List<IPhantomBlockContext> contexts = getIndexed(player.getWorld(), x >> 4, z >> 4);
+
+        for (int i = contexts.size() - 1; i >= 0; i--) {
+            IPhantomBlockContext context = contexts.get(i);
+            if (!context.canSee(player))
+                continue;
+
+            // invoked from network threads, only read published state
+            IPhantomBlock block = context.getPublishedBlock(x, y, z);
+            if (block == null)
+                continue;
+
+            return block;
+        }
+
+        return null;
+    }
+
     @Nullable
     @Override
     public IPhantomBlock getBlockAt(World world, ICoords3Di coords) {
@@ -141,25 +188,164 @@ public class BlockContextManager extends NamedInsensitiveManager<IPhantomBlockCo
     public Collection<IPhantomBlockContext> getChunkContexts(World world, int chunkX, int chunkZ) {
         PreCon.notNull(world);
 
-        Collection<IPhantomBlockContext> contexts = _worldContexts.get(world);
-        if (contexts.isEmpty())
-            return CollectionUtils.unmodifiableList(IPhantomBlockContext.class);
+        return getIndexed(world, chunkX, chunkZ);
+    }
 
-        List<IPhantomBlockContext> results = new ArrayList<>(5);
+    @Override
+    public Collection<IPhantomBlockContext> getChunkContexts(World world, ICoords2Di coords) {
+        return getChunkContexts(world, coords.getX(), coords.getZ());
+    }
 
-        for (IPhantomBlockContext context : contexts) {
-            IPhantomChunk chunk = context.getPhantomChunk(chunkX, chunkZ);
-            if (chunk == null)
-                continue;
+    /**
+     * Get the cache of chunk overlays composed from multiple contexts.
+     */
+    public ChunkOverlayCache getOverlayCache() {
+        return _overlayCache;
+    }
+
+    /**
+     * Get the tracker of the chunks each player's client holds.
+     */
+    public ClientChunkTracker getChunkTracker() {
+        return _chunkTracker;
+    }
+
+    /**
+     * Get the queue of outbound phantom block packets.
+     */
+    public PacketQueue getPacketQueue() {
+        return _packetQueue;
+    }
+
+    /**
+     * Get the policy used to choose the packets chunks are resent with.
+     */
+    public ResendPolicy getResendPolicy() {
+        return _resendPolicy;
+    }
+
+    @Override
+    public void updateChunkIndex(IPhantomBlockContext context, int chunkX, int chunkZ, boolean hasBlocks) {
+        PreCon.notNull(context);
+
+        if (!isRegistered(context))
+            return;
+
+        World world = context.getWorld();
+        if (world == null)
+            return;
 
-            results.add(context);
+        LongHashMap<List<IPhantomBlockContext>> index = _chunkIndex.get(world);
+        if (index == null) {
+            if (!hasBlocks)
+                return;
+
+            index = new LongHashMap<>(64);
+            _chunkIndex.put(world, index);
         }
 
-        return results;
+        updateIndex(index, LongHashMap.key(chunkX, chunkZ), context, hasBlocks);
     }
 
     @Override
-    public Collection<IPhantomBlockContext> getChunkContexts(World world, ICoords2Di coords) {
-        return getChunkContexts(world, coords.getX(), coords.getZ());
+    public void reindex(IPhantomBlockContext context) {
+        PreCon.notNull(context);
+
+        if (!isRegistered(context))
+            return;
+
+        unindexChunks(context);
+        indexChunks(context);
+    }
+
+    /*
+     * Get the indexed contexts of a chunk.
+     */
+    private List<IPhantomBlockContext> getIndexed(World world, int chunkX, int chunkZ) {
+
+        LongHashMap<List<IPhantomBlockContext>> index = _chunkIndex.get(world);
+        if (index == null)
+            return Collections.emptyList();
+
+        List<IPhantomBlockContext> contexts = index.get(LongHashMap.key(chunkX, chunkZ));
+        return contexts != null
+                ? contexts
+                : Collections.<IPhantomBlockContext>emptyList();
+    }
+
+    /*
+     * Determine if the context is the instance registered with the manager.
+     */
+    private boolean isRegistered(IPhantomBlockContext context) {
+        return get(context.getName()) == context;
+    }
+
+    /*
+     * Add all chunks of a context to the index.
+     */
+    private void indexChunks(IPhantomBlockContext context) {
+        for (IPhantomChunk chunk : context.getPhantomChunks()) {
+            updateChunkIndex(context, chunk.getX(), chunk.getZ(), true);
+        }
+    }
+
+    /*
+     * Remove a context from the index of its world.
+     */
+    private void unindexChunks(IPhantomBlockContext context) {
+
+        World world = context.getWorld();
+        if (world == null)
+            return;
+
+        LongHashMap<List<IPhantomBlockContext>> index = _chunkIndex.get(world);
+        if (index == null)
+            return;
+
+        for (long key : index.keys()) {
+
+            // only chunks the context had blocks in
+            if (updateIndex(index, key, context, false))
+                _overlayCache.invalidate(world, LongHashMap.keyX(key), LongHashMap.keyZ(key));
+        }
+    }
+
+    /*
+     * Replace the immutable context list of a chunk key. Returns true if the list changed.
+     */
+    private boolean updateIndex(LongHashMap<List<IPhantomBlockContext>> index, long key,
+                             IPhantomBlockContext context, boolean isAdded) {
+
+        List<IPhantomBlockContext> current = index.get(key);
+        if (current == null)
+            current = Collections.emptyList();
+
+        if (current.contains(context) == isAdded)
+            return false;
+
+        IPhantomBlockContext[] array;
+
+        if (isAdded) {
+            array = current.toArray(new IPhantomBlockContext[current.size() + 1]);
+            array[current.size()] = context;
+        }
+        else {
+            array = new IPhantomBlockContext[current.size() - 1];
+            int i = 0;
+            for (IPhantomBlockContext indexed : current) {
+                if (indexed != context)
+                    array[i++] = indexed;
+            }
+        }
+
+        if (array.length == 0) {
+            index.remove(key);
+        }
+        else {
+            Arrays.sort(array, PRIORITY_ORDER);
+            index.put(key, Collections.unmodifiableList(Arrays.asList(array)));
+        }
+
+        return true;
     }
 }
@@ -0,0 +1,65 @@
+/*
+ * This file is part of PhantomPackets for Bukkit, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) JCThePants (www.jcwhatever.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jcwhatever.phantom.blocks;
+
+import com.jcwhatever.nucleus.utils.PreCon;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+/**
+ * Bukkit event listener for block contexts.
+ *
+ * <p>Removes the tracked chunks and queued chunk resends of a player when the
+ * player leaves. When a player changes worlds only the queued resends are removed,
+ * the chunk tracker resets itself when chunks of the new world are sent.</p>
+ */
+public class BlocksEventListener implements Listener {
+
+    private final BlockContextManager _manager;
+
+    public BlocksEventListener(BlockContextManager manager) {
+        PreCon.notNull(manager);
+
+        _manager = manager;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        _manager.getChunkTracker().clear(event.getPlayer());
+        _manager.getPacketQueue().clear(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChangeWorld(PlayerChangedWorldEvent event) {
+
+        // Chunks of the new world may already be tracked, the event is
+        // called after they are sent.
+        _manager.getPacketQueue().clear(event.getPlayer());
+    }
+}
@@ -27,19 +27,22 @@ package com.jcwhatever.phantom.blocks;
 import com.comphenix.protocol.PacketType;
 import com.comphenix.protocol.PacketType.Play.Client;
 import com.comphenix.protocol.PacketType.Play.Server;
-import com.comphenix.protocol.ProtocolLibrary;
 import com.comphenix.protocol.events.PacketAdapter;
 import com.comphenix.protocol.events.PacketContainer;
 import com.comphenix.protocol.events.PacketEvent;
-import com.comphenix.protocol.reflect.StructureModifier;
-import com.jcwhatever.nucleus.managed.scheduler.Scheduler;
 import com.jcwhatever.nucleus.utils.PreCon;
 import com.jcwhatever.phantom.IPhantomBlock;
 import com.jcwhatever.phantom.IPhantomBlockContext;
-import com.jcwhatever.phantom.IBlockContextManager;
+import com.jcwhatever.phantom.IPhantomChunk;
 import com.jcwhatever.phantom.Msg;
 import com.jcwhatever.phantom.PhantomPackets;
-import com.jcwhatever.phantom.packets.factory.IBlockChangeFactory;
+import com.jcwhatever.phantom.blocks.ParallelChunkTranslator.IChunkTranslation;
+import com.jcwhatever.phantom.Utils;
+import com.jcwhatever.phantom.data.ChunkBulkData;
+import com.jcwhatever.phantom.data.ChunkData;
+import com.jcwhatever.phantom.data.ChunkOverlay;
+import com.jcwhatever.phantom.data.IChunkData;
+import com.jcwhatever.phantom.light.LightManager;
 import com.jcwhatever.phantom.packets.IBlockChangePacket;
 import com.jcwhatever.phantom.packets.IBlockDigPacket;
 import com.jcwhatever.phantom.packets.IBlockPlacePacket;
@@ -48,17 +51,19 @@ import com.jcwhatever.phantom.packets.IMultiBlockChangePacket;
 import org.bukkit.World;
 import org.bukkit.entity.Player;
 
-import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * Protocol listener for block contexts.
  */
 public class BlocksProtocolListener extends PacketAdapter {
 
-    private final IBlockContextManager _manager;
+    private final BlockContextManager _manager;
+    private final ParallelChunkTranslator _bulkTranslator;
 
-    public BlocksProtocolListener(IBlockContextManager manager) {
+    public BlocksProtocolListener(BlockContextManager manager, ParallelChunkTranslator bulkTranslator) {
         super(PhantomPackets.getPlugin(), Server.MAP_CHUNK,
                 Server.MAP_CHUNK_BULK,
                 Server.BLOCK_CHANGE,
@@ -67,8 +72,10 @@ public class BlocksProtocolListener extends PacketAdapter {
                 Client.BLOCK_PLACE);
 
         PreCon.notNull(manager);
+        PreCon.notNull(bulkTranslator);
 
         _manager = manager;
+        _bulkTranslator = bulkTranslator;
     }
 
     @Override
@@ -100,24 +107,22 @@ public class BlocksProtocolListener extends PacketAdapter {
     public void onPacketSending(PacketEvent event) {
 
         World world = event.getPlayer().getWorld();
-
-        if (!_manager.hasPhantomBlocksInWorld(world))
-            return;
-
         PacketType type = event.getPacketType();
         PacketContainer packet = event.getPacket();
 
         /* Block Change */
         if (type == Server.BLOCK_CHANGE) {
-            handleBlock(event, packet, world, event.getPlayer());
+            if (_manager.hasPhantomBlocksInWorld(world))
+                handleBlock(event, packet, world, event.getPlayer());
         }
         /* Multi Block Change */
         else if (type == Server.MULTI_BLOCK_CHANGE) {
-            handleMultiBlock(event, packet, world, event.getPlayer());
+            if (_manager.hasPhantomBlocksInWorld(world))
+                handleMultiBlock(event, packet, world, event.getPlayer());
         }
         /* Map Chunk */
         else if (type == Server.MAP_CHUNK) {
-            handleMapChunk(packet, world, event.getPlayer());
+            handleMapChunk(event, packet, world, event.getPlayer());
         }
         /* Map Chunk Bulk */
         else if (type == Server.MAP_CHUNK_BULK) {
@@ -129,16 +134,18 @@ public class BlocksProtocolListener extends PacketAdapter {
 
         IBlockChangePacket wrapper = PhantomPackets.getNms().getBlockChangePacket(packet);
 
-        IPhantomBlock block = _manager.getBlockAt(world, wrapper);
+        IPhantomBlock block = _manager.getVisibleBlockAt(
+                player, wrapper.getX(), wrapper.getY(), wrapper.getZ());
         if (block == null)
             return;
 
-        if (!block.canSee(event.getPlayer()))
-            return;
-
         Msg.debug("Handling PacketPlayOutBlockChange for player {0}. [{1}, {2}, {3}, {4}]",
                 world.getName(), wrapper.getX(), wrapper.getY(), wrapper.getZ());
 
+        // the packet already contains the phantom block
+        if (wrapper.getMaterial() == block.getMaterial() && wrapper.getData() == block.getData())
+            return;
+
         IBlockChangePacket clone = wrapper.clonePacket();
 
         clone.setBlock(block);
@@ -154,6 +161,11 @@ public class BlocksProtocolListener extends PacketAdapter {
         if (contexts.isEmpty())
             return;
 
+        boolean isTranslated = false;
+
+        // contexts are in ascending priority order, each visible context overwrites
+        // the decoded blocks of lower priority contexts. The packet is only cloned
+        // if a block value actually changed.
         for (IPhantomBlockContext context : contexts) {
 
             Msg.debug("Iterating PacketPlayOutMultiBlockChange [{0}, {1}, {2}] context: {3}",
@@ -165,97 +177,153 @@ public class BlocksProtocolListener extends PacketAdapter {
             Msg.debug("Handling PacketPlayOutMultiBlockChange for player {0} [{1}, {2}, {3}] for context: {4}",
                     player.getName(), world.getName(), wrapper.getChunkX(), wrapper.getChunkZ(), context.getName());
 
-            IMultiBlockChangePacket cloned = wrapper.clonePacket();
-
-            context.translateMultiBlock(player, cloned);
-            cloned.saveChanges();
-            event.setPacket(cloned.getPacket());
+            context.translateMultiBlock(player, wrapper);
+            isTranslated = true;
         }
+
+        if (!isTranslated || !wrapper.isChanged())
+            return;
+
+        IMultiBlockChangePacket cloned = wrapper.clonePacket();
+        event.setPacket(cloned.getPacket());
     }
 
-    private void handleMapChunk(PacketContainer packet, World world, Player player) {
+    private void handleMapChunk(PacketEvent event, PacketContainer packet, World world, Player player) {
 
-        StructureModifier<Integer> integers = packet.getSpecificModifier(int.class);
-        int chunkX = integers.read(0);
-        int chunkZ = integers.read(1);
+        ChunkData chunkData = PhantomPackets.getNms().getChunkData(packet, world);
 
-        Collection<IPhantomBlockContext> contexts = _manager.getChunkContexts(
-                world, chunkX, chunkZ);
-        if (contexts.isEmpty())
+        // chunk packets are tracked in every world, contexts may be added later
+        _manager.getChunkTracker().onChunkPacket(player, world, chunkData, false);
+
+        if (chunkData.isUnload())
             return;
 
-        for (IPhantomBlockContext context : contexts) {
+        LightManager lights = PhantomPackets.getLightManager();
 
-            Msg.debug("Iterating PacketPlayOutMapChunk [{0}, {1}, {2}] context: {3}",
-                    world.getName(), chunkX, chunkZ, context.getName());
+        boolean hasBlocks = _manager.hasPhantomBlocksInWorld(world) &&
+                !_manager.getChunkContexts(world, chunkData.getX(), chunkData.getZ()).isEmpty();
 
-            if (!context.canSee(player))
-                continue;
+        boolean hasLights = lights.hasPhantomLights(world, chunkData.getX(), chunkData.getZ());
 
-            Msg.debug("Handling PacketPlayOutMapChunk for player {0}. [{1}, {2}, {3}] for context: {4}",
-                    player.getName(), world.getName(), chunkX, chunkZ, context.getName());
+        if (!hasBlocks && !hasLights)
+            return;
 
-            context.translateMapChunk(player, packet);
-        }
+        // Map chunk packets can be sent to multiple players, the chunk is
+        // translated for this player in a copy of the data.
+        chunkData.detachData();
+
+        if (hasBlocks)
+            translateChunk(chunkData, world, player);
+
+        if (hasLights)
+            lights.applyTo(player, world, chunkData);
+
+        PacketContainer clone = Utils.clonePacket(packet);
+        PhantomPackets.getNms().saveChunkData(clone, chunkData);
+        event.setPacket(clone);
     }
 
-    private void handleMapChunkBulk(PacketContainer packet, World world, Player player) {
+    private void handleMapChunkBulk(PacketContainer packet, final World world, final Player player) {
 
-        StructureModifier<int[]> integerArrays = packet.getSpecificModifier(int[].class);
-        int[] chunkXArray = integerArrays.read(0);
-        int[] chunkZArray = integerArrays.read(1);
+        // parse the bulk packet once and translate each chunk
+        // with only the contexts that have blocks in it.
+        ChunkBulkData bulkData = PhantomPackets.getNms().getChunkBulkData(packet, world);
+        IChunkData[] chunks = bulkData.getChunkData();
 
-        for (int i = 0; i < chunkXArray.length; i++) {
+        for (IChunkData chunkData : chunks) {
+            _manager.getChunkTracker().onChunkPacket(player, world, chunkData, true);
+        }
 
-            int chunkX = chunkXArray[i];
-            int chunkZ = chunkZArray[i];
+        final LightManager lights = PhantomPackets.getLightManager();
 
-            Collection<IPhantomBlockContext> contexts = _manager.getChunkContexts(
-                    world, chunkX, chunkZ);
-            if (contexts.isEmpty())
-                return;
+        final boolean hasBlocks = _manager.hasPhantomBlocksInWorld(world);
+        final boolean hasLights = lights.hasPhantomLights(world);
 
-            for (IPhantomBlockContext context : contexts) {
+        if (!hasBlocks && !hasLights)
+            return;
 
-                Msg.debug("Iterating PacketPlayOutMapChunkBulk [{0}, {1}, {2}] context: {3}",
-                        world.getName(), chunkX, chunkZ, context.getName());
+        // each chunk has its own data array and can be translated independently
+        _bulkTranslator.translate(chunks, new IChunkTranslation() {
+            @Override
+            public void translate(IChunkData chunkData) {
 
-                if (!context.canSee(player))
-                    continue;
+                if (hasBlocks)
+                    translateChunk(chunkData, world, player);
 
-                Msg.debug("Handling PacketPlayOutMapChunkBulk for player {0}. [{1}, {2}, {3}] for context: {4}",
-                        player.getName(), world.getName(), chunkX, chunkZ, context.getName());
+                if (hasLights)
+                    lights.applyTo(player, world, chunkData);
+            }
+        });
 
-                context.translateMapChunkBulk(player, packet);
+        for (IChunkData chunkData : chunks) {
+            if (chunkData.isDataReplaced()) {
+                PhantomPackets.getNms().saveChunkBulkData(packet, bulkData);
+                break;
             }
         }
     }
 
-    private void repairPhantomBlock(final Player player, int x, int y, int z) {
-
-        World world = player.getWorld();
+    private void translateChunk(IChunkData chunkData, World world, Player player) {
 
-        IPhantomBlock block = PhantomPackets.getBlockContexts().getBlockAt(world, x, y, z);
-        if (block == null)
+        // the chunk is being unloaded on the client
+        if (chunkData.isUnload())
             return;
 
-        if (!block.canSee(player))
+        Collection<IPhantomBlockContext> contexts = _manager.getChunkContexts(
+                world, chunkData.getX(), chunkData.getZ());
+        if (contexts.isEmpty())
             return;
 
-        IBlockChangeFactory factory = PhantomPackets.getNms().getBlockChangeFactory(
-                x, y, z, block.getMaterial(), block.getData());
+        IPhantomBlockContext visible = null;
+        List<IPhantomChunk> visibleChunks = null;
 
-        final PacketContainer packet = factory.createPacket(world);
+        for (IPhantomBlockContext context : contexts) {
 
-        Scheduler.runTaskLater(PhantomPackets.getPlugin(), new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    ProtocolLibrary.getProtocolManager().sendServerPacket(player, packet);
-                } catch (InvocationTargetException e) {
-                    e.printStackTrace();
-                }
+            Msg.debug("Iterating chunk data [{0}, {1}, {2}] context: {3}",
+                    world.getName(), chunkData.getX(), chunkData.getZ(), context.getName());
+
+            if (!context.canSee(player))
+                continue;
+
+            Msg.debug("Handling chunk data for player {0}. [{1}, {2}, {3}] for context: {4}",
+                    player.getName(), world.getName(), chunkData.getX(), chunkData.getZ(), context.getName());
+
+            IPhantomChunk chunk = context.getPhantomChunk(chunkData.getX(), chunkData.getZ());
+            if (chunk == null || chunk.getOverlay().getSectionMask() == 0)
+                continue;
+
+            if (visible == null) {
+                visible = context;
+                continue;
             }
-        });
+
+            if (visibleChunks == null) {
+                visibleChunks = new ArrayList<>(contexts.size());
+                visibleChunks.add(visible.getPhantomChunk(chunkData.getX(), chunkData.getZ()));
+            }
+
+            visibleChunks.add(chunk);
+        }
+
+        if (visibleChunks != null) {
+
+            // multiple contexts, use the shared composed overlay
+            ChunkOverlay overlay = _manager.getOverlayCache().getOverlay(
+                    world, chunkData.getX(), chunkData.getZ(), visibleChunks);
+
+            overlay.applyTo(chunkData);
+        }
+        else if (visible != null) {
+            visible.translateChunkData(player, chunkData);
+        }
+    }
+
+    private void repairPhantomBlock(Player player, int x, int y, int z) {
+
+        if (_manager.getVisibleBlockAt(player, x, y, z) == null)
+            return;
+
+        // repairs are merged per chunk and sent on the next tick
+        _manager.getPacketQueue().queueRepair(player, x, y, z);
     }
 }
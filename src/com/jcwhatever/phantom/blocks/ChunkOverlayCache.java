@@ -0,0 +1,261 @@
+/*
+ * This file is part of PhantomPackets for Bukkit, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) JCThePants (www.jcwhatever.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jcwhatever.phantom.blocks;
+
+import com.jcwhatever.nucleus.utils.PreCon;
+import com.jcwhatever.phantom.IPhantomChunk;
+import com.jcwhatever.phantom.data.ChunkOverlay;
+
+import org.bukkit.World;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared cache of chunk overlays composed from the phantom chunks of
+ * multiple block contexts.
+ *
+ * <p>Players who can see the same contexts in a chunk share the same composed
+ * overlay so the contexts only need to be merged once per change instead of
+ * once per chunk packet.</p>
+ *
+ * <p>Entries are keyed by the world and chunk coordinates and matched against
+ * the phantom chunks and their revisions. The least recently used chunks are
+ * evicted once the maximum size is reached.</p>
+ */
+public class ChunkOverlayCache {
+
+    // max composed overlays kept per chunk, one per unique set of visible contexts
+    private static final int MAX_SIGNATURES = 4;
+
+    private final int _maxChunks;
+    private final Map<ChunkKey, List<CachedOverlay>> _entries;
+
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param maxChunks  The maximum number of chunks to cache.
+     */
+    public ChunkOverlayCache(int maxChunks) {
+        PreCon.positiveNumber(maxChunks);
+
+        _maxChunks = maxChunks;
+        _entries = new LinkedHashMap<ChunkKey, List<CachedOverlay>>(maxChunks, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Entry<ChunkKey, List<CachedOverlay>> eldest) {
+                return size() > _maxChunks;
+            }
+        };
+    }
+
+    /**
+     * Get the maximum number of chunks cached.
+     */
+    public int getMaxChunks() {
+        return _maxChunks;
+    }
+
+    /**
+     * Get the number of chunks currently cached.
+     */
+    public int size() {
+        synchronized (_entries) {
+            return _entries.size();
+        }
+    }
+
+    /**
+     * Get the number of requests served from the cache.
+     */
+    public long getHits() {
+        return _hits.get();
+    }
+
+    /**
+     * Get the number of requests that required the overlay to be composed.
+     */
+    public long getMisses() {
+        return _misses.get();
+    }
+
+    /**
+     * Get the composed overlay of the specified phantom chunks.
+     *
+     * <p>Chunks later in the list overwrite blocks of chunks earlier in the list.</p>
+     *
+     * <p>The returned overlay is shared and must not be modified.</p>
+     *
+     * @param world   The world the chunk is in.
+     * @param chunkX  The chunk X coordinates.
+     * @param chunkZ  The chunk Z coordinates.
+     * @param chunks  The phantom chunks visible to the player.
+     */
+    public ChunkOverlay getOverlay(World world, int chunkX, int chunkZ, List<IPhantomChunk> chunks) {
+        PreCon.notNull(world);
+        PreCon.notNull(chunks);
+
+        IPhantomChunk[] chunkArray = chunks.toArray(new IPhantomChunk[chunks.size()]);
+        int[] revisions = new int[chunkArray.length];
+
+        for (int i = 0; i < chunkArray.length; i++) {
+            revisions[i] = chunkArray[i].getRevision();
+        }
+
+        ChunkKey key = new ChunkKey(world, chunkX, chunkZ);
+
+        synchronized (_entries) {
+
+            List<CachedOverlay> cached = _entries.get(key);
+            if (cached != null) {
+                for (CachedOverlay entry : cached) {
+                    if (entry.matches(chunkArray, revisions)) {
+                        _hits.incrementAndGet();
+                        return entry.overlay;
+                    }
+                }
+            }
+        }
+
+        _misses.incrementAndGet();
+
+        // compose outside of the lock, chunk overlays are read from immutable published snapshots
+        ChunkOverlay overlay = new ChunkOverlay();
+        for (IPhantomChunk chunk : chunkArray) {
+            overlay.merge(chunk.getOverlay());
+        }
+
+        synchronized (_entries) {
+
+            List<CachedOverlay> cached = _entries.get(key);
+            if (cached == null) {
+                cached = new ArrayList<>(MAX_SIGNATURES);
+                _entries.put(key, cached);
+            }
+            else if (cached.size() >= MAX_SIGNATURES) {
+                cached.remove(0);
+            }
+
+            cached.add(new CachedOverlay(chunkArray, revisions, overlay));
+        }
+
+        return overlay;
+    }
+
+    /**
+     * Remove all composed overlays of a chunk.
+     *
+     * @param world   The world the chunk is in.
+     * @param chunkX  The chunk X coordinates.
+     * @param chunkZ  The chunk Z coordinates.
+     */
+    public void invalidate(World world, int chunkX, int chunkZ) {
+        PreCon.notNull(world);
+
+        synchronized (_entries) {
+            if (_entries.isEmpty())
+                return;
+
+            _entries.remove(new ChunkKey(world, chunkX, chunkZ));
+        }
+    }
+
+    /**
+     * Remove all composed overlays.
+     */
+    public void clear() {
+        synchronized (_entries) {
+            _entries.clear();
+        }
+    }
+
+    /*
+     * World chunk key.
+     */
+    private static final class ChunkKey {
+
+        final World world;
+        final int x;
+        final int z;
+        final int hash;
+
+        ChunkKey(World world, int x, int z) {
+            this.world = world;
+            this.x = x;
+            this.z = z;
+            this.hash = (world.hashCode() * 31 + x) * 31 + z;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ChunkKey))
+                return false;
+
+            ChunkKey other = (ChunkKey)obj;
+
+            return other.x == x && other.z == z && other.world.equals(world);
+        }
+    }
+
+    /*
+     * Composed overlay and the phantom chunk revisions it was composed from.
+     */
+    private static final class CachedOverlay {
+
+        final IPhantomChunk[] chunks;
+        final int[] revisions;
+        final ChunkOverlay overlay;
+
+        CachedOverlay(IPhantomChunk[] chunks, int[] revisions, ChunkOverlay overlay) {
+            this.chunks = chunks;
+            this.revisions = revisions;
+            this.overlay = overlay;
+        }
+
+        boolean matches(IPhantomChunk[] chunks, int[] revisions) {
+
+            if (chunks.length != this.chunks.length)
+                return false;
+
+            for (int i = 0; i < chunks.length; i++) {
+                if (chunks[i] != this.chunks[i] || revisions[i] != this.revisions[i])
+                    return false;
+            }
+
+            return true;
+        }
+    }
+}
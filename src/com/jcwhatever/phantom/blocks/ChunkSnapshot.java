@@ -0,0 +1,89 @@
+/*
+ * This file is part of PhantomPackets for Bukkit, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) JCThePants (www.jcwhatever.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jcwhatever.phantom.blocks;
+
+import com.jcwhatever.phantom.data.ChunkOverlay;
+
+/**
+ * Immutable published state of a phantom chunk.
+ *
+ * <p>Snapshots are built on the main thread and read by packet handlers on
+ * network threads without locking. Neither the sections nor the overlay of a
+ * snapshot are modified after it is published.</p>
+ */
+final class ChunkSnapshot {
+
+    static final ChunkSnapshot EMPTY = new ChunkSnapshot(
+            new PhantomSection[16], new ChunkOverlay(), false, 0, 0);
+
+    final PhantomSection[] sections;
+    final ChunkOverlay overlay;
+    final boolean ignoresAir;
+    final int revision;
+    final int totalBlocks;
+
+    /**
+     * Constructor.
+     *
+     * @param sections     The published sections.
+     * @param overlay      The pre-encoded overlay of the sections.
+     * @param ignoresAir   True if air blocks are not visible.
+     * @param revision     The revision of the snapshot.
+     * @param totalBlocks  The total number of visible blocks.
+     */
+    ChunkSnapshot(PhantomSection[] sections, ChunkOverlay overlay,
+                  boolean ignoresAir, int revision, int totalBlocks) {
+
+        this.sections = sections;
+        this.overlay = overlay;
+        this.ignoresAir = ignoresAir;
+        this.revision = revision;
+        this.totalBlocks = totalBlocks;
+    }
+
+    /**
+     * Determine if a visible block is set at the specified coordinates.
+     *
+     * @param relativeX  The X coordinates relative to the chunk.
+     * @param y          The Y coordinates.
+     * @param relativeZ  The Z coordinates relative to the chunk.
+     */
+    boolean hasBlock(int relativeX, int y, int relativeZ) {
+        return PhantomSection.hasBlock(sections, ignoresAir, relativeX, y, relativeZ);
+    }
+
+    /**
+     * Get the combined ID of the block at the specified coordinates.
+     *
+     * @param relativeX  The X coordinates relative to the chunk.
+     * @param y          The Y coordinates.
+     * @param relativeZ  The Z coordinates relative to the chunk.
+     *
+     * @return  The combined ID or -1 if the block is not set.
+     */
+    int getCombinedId(int relativeX, int y, int relativeZ) {
+        return PhantomSection.getCombinedId(sections, relativeX, y, relativeZ);
+    }
+}
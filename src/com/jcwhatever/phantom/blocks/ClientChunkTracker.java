@@ -0,0 +1,201 @@
+/*
+ * This file is part of PhantomPackets for Bukkit, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) JCThePants (www.jcwhatever.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jcwhatever.phantom.blocks;
+
+import com.jcwhatever.nucleus.utils.PreCon;
+import com.jcwhatever.phantom.collections.LongHashMap;
+import com.jcwhatever.phantom.data.IChunkData;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Tracks the chunks each player's client holds.
+ *
+ * <p>The tracker is updated by observing outbound map chunk and map chunk bulk
+ * packets. A continuous map chunk packet with an empty section mask unloads the
+ * chunk on the client. Non-continuous map chunk packets update a chunk the client
+ * already holds and do not change the tracked state.</p>
+ *
+ * <p>The chunks of a player are cleared when a chunk from a different world is
+ * loaded. Players that were already online when the tracker was created are
+ * assumed to hold the chunks within view distance until a chunk packet is sent
+ * to them. Thread safe.</p>
+ */
+public class ClientChunkTracker {
+
+    private final Map<Player, PlayerChunks> _players = new WeakHashMap<>(20);
+
+    // players online before tracking started
+    private final Map<Player, Boolean> _untracked = new WeakHashMap<>(20);
+
+    /**
+     * Constructor.
+     */
+    public ClientChunkTracker() {
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            _untracked.put(player, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Update the tracked chunks of a player from an outbound chunk packet.
+     *
+     * @param player     The player the packet is sent to.
+     * @param world      The world of the chunk.
+     * @param chunkData  The chunk data of the packet.
+     * @param isBulk     True if the chunk data is from a map chunk bulk packet.
+     */
+    public void onChunkPacket(Player player, World world, IChunkData chunkData, boolean isBulk) {
+        PreCon.notNull(player);
+        PreCon.notNull(world);
+        PreCon.notNull(chunkData);
+
+        if (isBulk) {
+            onLoad(player, world, chunkData.getX(), chunkData.getZ());
+        }
+        else if (chunkData.isContinuous()) {
+
+            if (chunkData.getSectionMask() == 0) {
+                onUnload(player, world, chunkData.getX(), chunkData.getZ());
+            }
+            else {
+                onLoad(player, world, chunkData.getX(), chunkData.getZ());
+            }
+        }
+    }
+
+    /**
+     * Determine if a player's client holds a chunk.
+     *
+     * @param player  The player.
+     * @param world   The world of the chunk.
+     * @param chunkX  The chunk X coordinates.
+     * @param chunkZ  The chunk Z coordinates.
+     */
+    public boolean isLoaded(Player player, World world, int chunkX, int chunkZ) {
+        PreCon.notNull(player);
+        PreCon.notNull(world);
+
+        synchronized (_players) {
+            PlayerChunks chunks = _players.get(player);
+
+            if (chunks == null && _untracked.containsKey(player))
+                return isInViewDistance(player, world, chunkX, chunkZ);
+
+            return chunks != null && chunks.world == world &&
+                    chunks.chunks.containsKey(LongHashMap.key(chunkX, chunkZ));
+        }
+    }
+
+    /**
+     * Get the number of chunks a player's client holds.
+     *
+     * @param player  The player.
+     */
+    public int getLoadedChunks(Player player) {
+        PreCon.notNull(player);
+
+        synchronized (_players) {
+            PlayerChunks chunks = _players.get(player);
+            return chunks != null ? chunks.chunks.size() : 0;
+        }
+    }
+
+    /**
+     * Stop tracking the chunks of a player.
+     *
+     * @param player  The player.
+     */
+    public void clear(Player player) {
+        PreCon.notNull(player);
+
+        synchronized (_players) {
+            _players.remove(player);
+            _untracked.remove(player);
+        }
+    }
+
+    /*
+     * Record a chunk loaded by a player's client.
+     */
+    private void onLoad(Player player, World world, int chunkX, int chunkZ) {
+
+        synchronized (_players) {
+            PlayerChunks chunks = _players.get(player);
+
+            if (chunks == null || chunks.world != world) {
+                chunks = new PlayerChunks(world);
+                _players.put(player, chunks);
+                _untracked.remove(player);
+            }
+
+            chunks.chunks.put(LongHashMap.key(chunkX, chunkZ), Boolean.TRUE);
+        }
+    }
+
+    /*
+     * Record a chunk unloaded by a player's client.
+     */
+    private void onUnload(Player player, World world, int chunkX, int chunkZ) {
+
+        synchronized (_players) {
+            PlayerChunks chunks = _players.get(player);
+
+            if (chunks != null && chunks.world == world)
+                chunks.chunks.remove(LongHashMap.key(chunkX, chunkZ));
+        }
+    }
+
+    /*
+     * Determine if a chunk is within the server view distance of a player.
+     */
+    private boolean isInViewDistance(Player player, World world, int chunkX, int chunkZ) {
+
+        if (player.getWorld() != world)
+            return false;
+
+        Location location = player.getLocation();
+        int viewDistance = Bukkit.getViewDistance();
+
+        return Math.abs(chunkX - (location.getBlockX() >> 4)) <= viewDistance &&
+                Math.abs(chunkZ - (location.getBlockZ() >> 4)) <= viewDistance;
+    }
+
+    private static class PlayerChunks {
+
+        final World world;
+        final LongHashMap<Boolean> chunks = new LongHashMap<>(441);
+
+        PlayerChunks(World world) {
+            this.world = world;
+        }
+    }
+}
@@ -0,0 +1,649 @@
+/*
+ * This file is part of PhantomPackets for Bukkit, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) JCThePants (www.jcwhatever.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jcwhatever.phantom.blocks;
+
+import com.comphenix.protocol.ProtocolLibrary;
+import com.comphenix.protocol.events.PacketContainer;
+import com.jcwhatever.nucleus.managed.scheduler.Scheduler;
+import com.jcwhatever.nucleus.storage.IDataNode;
+import com.jcwhatever.nucleus.utils.PreCon;
+import com.jcwhatever.phantom.IPhantomBlock;
+import com.jcwhatever.phantom.PhantomPackets;
+import com.jcwhatever.phantom.Utils;
+import com.jcwhatever.phantom.collections.LongHashMap;
+import com.jcwhatever.phantom.nms.INmsHandler;
+
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per player queue of outbound phantom block packets, flushed once per tick.
+ *
+ * <p>Chunk resends are deduplicated by key and block repairs are deduplicated
+ * by position. Repairs in the same chunk are merged into a single multi block
+ * change when the queue is flushed.</p>
+ *
+ * <p>Chunk resends are limited by per player and global byte and packet budgets
+ * per tick. The chunks closest to a player are sent first and the rest remain
+ * queued for the following ticks. Repairs are small and are not limited. The
+ * budgets are stored in the plugin data node under "packet-queue".</p>
+ *
+ * <p>Packets can be queued from any thread. The queue is flushed on the main
+ * thread.</p>
+ */
+public class PacketQueue {
+
+    private final BlockContextManager _manager;
+    private final IDataNode _dataNode;
+    private final ConcurrentHashMap<Player, PlayerQueue> _queues = new ConcurrentHashMap<>(20);
+    private final AtomicBoolean _isFlushScheduled = new AtomicBoolean();
+    private final AtomicLong _duplicates = new AtomicLong();
+    private final AtomicLong _merged = new AtomicLong();
+    private final AtomicLong _sentChunks = new AtomicLong();
+    private final AtomicLong _sentBytes = new AtomicLong();
+
+    private volatile int _playerBytesPerTick;
+    private volatile int _playerPacketsPerTick;
+    private volatile int _globalBytesPerTick;
+    private volatile int _globalPacketsPerTick;
+
+    // rotates the player the flush starts with so the global budget is shared
+    private int _flushOffset;
+
+    private final Runnable _flushTask = new Runnable() {
+        @Override
+        public void run() {
+            _isFlushScheduled.set(false);
+            flush();
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param manager   The block context manager used to look up repaired blocks.
+     * @param dataNode  The data node to load and save the budgets from.
+     */
+    public PacketQueue(BlockContextManager manager, IDataNode dataNode) {
+        PreCon.notNull(manager);
+        PreCon.notNull(dataNode);
+
+        _manager = manager;
+        _dataNode = dataNode;
+
+        _playerBytesPerTick = dataNode.getInteger("player-bytes-per-tick", 49152);
+        _playerPacketsPerTick = dataNode.getInteger("player-packets-per-tick", 32);
+        _globalBytesPerTick = dataNode.getInteger("global-bytes-per-tick", 524288);
+        _globalPacketsPerTick = dataNode.getInteger("global-packets-per-tick", 512);
+    }
+
+    /**
+     * Get the maximum estimated bytes of chunk resends sent to a player per tick.
+     */
+    public int getPlayerBytesPerTick() {
+        return _playerBytesPerTick;
+    }
+
+    /**
+     * Set the maximum estimated bytes of chunk resends sent to a player per tick.
+     *
+     * @param bytes  The number of bytes.
+     */
+    public void setPlayerBytesPerTick(int bytes) {
+        PreCon.positiveNumber(bytes);
+
+        _playerBytesPerTick = bytes;
+        save("player-bytes-per-tick", bytes);
+    }
+
+    /**
+     * Get the maximum number of chunk resend packets sent to a player per tick.
+     */
+    public int getPlayerPacketsPerTick() {
+        return _playerPacketsPerTick;
+    }
+
+    /**
+     * Set the maximum number of chunk resend packets sent to a player per tick.
+     *
+     * @param packets  The number of packets.
+     */
+    public void setPlayerPacketsPerTick(int packets) {
+        PreCon.positiveNumber(packets);
+
+        _playerPacketsPerTick = packets;
+        save("player-packets-per-tick", packets);
+    }
+
+    /**
+     * Get the maximum estimated bytes of chunk resends sent to all players per tick.
+     */
+    public int getGlobalBytesPerTick() {
+        return _globalBytesPerTick;
+    }
+
+    /**
+     * Set the maximum estimated bytes of chunk resends sent to all players per tick.
+     *
+     * @param bytes  The number of bytes.
+     */
+    public void setGlobalBytesPerTick(int bytes) {
+        PreCon.positiveNumber(bytes);
+
+        _globalBytesPerTick = bytes;
+        save("global-bytes-per-tick", bytes);
+    }
+
+    /**
+     * Get the maximum number of chunk resend packets sent to all players per tick.
+     */
+    public int getGlobalPacketsPerTick() {
+        return _globalPacketsPerTick;
+    }
+
+    /**
+     * Set the maximum number of chunk resend packets sent to all players per tick.
+     *
+     * @param packets  The number of packets.
+     */
+    public void setGlobalPacketsPerTick(int packets) {
+        PreCon.positiveNumber(packets);
+
+        _globalPacketsPerTick = packets;
+        save("global-packets-per-tick", packets);
+    }
+
+    /**
+     * Queue a chunk resend.
+     *
+     * <p>If a resend with the same key is already queued for the player,
+     * the resend is ignored.</p>
+     *
+     * @param player  The player to resend to.
+     * @param key     The key that identifies the chunk.
+     * @param chunkX  The chunk X coordinates, used to order resends by distance.
+     * @param chunkZ  The chunk Z coordinates, used to order resends by distance.
+     * @param sender  Sends the chunk when the queue is flushed.
+     */
+    public void queueChunk(Player player, Object key, int chunkX, int chunkZ, IChunkSender sender) {
+        PreCon.notNull(player);
+        PreCon.notNull(key);
+        PreCon.notNull(sender);
+
+        PlayerQueue queue = getQueue(player);
+
+        synchronized (queue) {
+            if (queue.chunks.containsKey(key)) {
+                _duplicates.incrementAndGet();
+                return;
+            }
+            queue.chunks.put(key, new ChunkResend(key, chunkX, chunkZ, sender));
+            queue.totalQueued++;
+        }
+
+        scheduleFlush();
+    }
+
+    /**
+     * Queue a repair of the phantom block at the specified position.
+     *
+     * <p>The visible phantom block is looked up when the queue is flushed. If there
+     * is no longer a visible phantom block at the position, nothing is sent.</p>
+     *
+     * @param player  The player to repair the block for.
+     * @param x       The block X coordinates.
+     * @param y       The block Y coordinates.
+     * @param z       The block Z coordinates.
+     */
+    public void queueRepair(Player player, int x, int y, int z) {
+        PreCon.notNull(player);
+
+        if (y < 0 || y > 255)
+            return;
+
+        PlayerQueue queue = getQueue(player);
+        World world = player.getWorld();
+
+        synchronized (queue) {
+
+            // repairs queued in a different world are no longer valid
+            if (queue.repairWorld != world) {
+                queue.repairs.clear();
+                queue.repairWorld = world;
+            }
+
+            long key = LongHashMap.key(x >> 4, z >> 4);
+
+            ChunkRepairs repairs = queue.repairs.get(key);
+            if (repairs == null) {
+                repairs = new ChunkRepairs(x >> 4, z >> 4);
+                queue.repairs.put(key, repairs);
+            }
+
+            if (!repairs.add((short) (((x & 0xF) << 12) | ((z & 0xF) << 8) | y))) {
+                _duplicates.incrementAndGet();
+                return;
+            }
+        }
+
+        scheduleFlush();
+    }
+
+    /**
+     * Remove all queued packets for a player.
+     *
+     * @param player  The player.
+     */
+    public void clear(Player player) {
+        PreCon.notNull(player);
+
+        _queues.remove(player);
+    }
+
+    /**
+     * Get the number of chunk resends waiting in the queue for all players.
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+
+        for (PlayerQueue queue : _queues.values()) {
+            synchronized (queue) {
+                depth += queue.chunks.size();
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * Get the number of chunk resends waiting in the queue for a player.
+     *
+     * @param player  The player.
+     */
+    public int getQueueDepth(Player player) {
+        PreCon.notNull(player);
+
+        PlayerQueue queue = _queues.get(player);
+        if (queue == null)
+            return 0;
+
+        synchronized (queue) {
+            return queue.chunks.size();
+        }
+    }
+
+    /**
+     * Get the progress of the chunk resends queued for a player since their
+     * queue was last empty.
+     *
+     * @param player  The player.
+     *
+     * @return  A value from 0.0 to 1.0. 1.0 if nothing is queued.
+     */
+    public double getProgress(Player player) {
+        PreCon.notNull(player);
+
+        PlayerQueue queue = _queues.get(player);
+        if (queue == null)
+            return 1.0D;
+
+        synchronized (queue) {
+            if (queue.totalQueued == 0)
+                return 1.0D;
+
+            return (double) (queue.totalQueued - queue.chunks.size()) / queue.totalQueued;
+        }
+    }
+
+    /**
+     * Get the number of chunk resends sent.
+     */
+    public long getSentChunks() {
+        return _sentChunks.get();
+    }
+
+    /**
+     * Get the estimated number of bytes sent by chunk resends.
+     */
+    public long getSentBytes() {
+        return _sentBytes.get();
+    }
+
+    /**
+     * Get the number of queued packets that were dropped as duplicates.
+     */
+    public long getDuplicates() {
+        return _duplicates.get();
+    }
+
+    /**
+     * Get the number of block repairs that were merged into a multi block change.
+     */
+    public long getMerged() {
+        return _merged.get();
+    }
+
+    /**
+     * Send all queued packets.
+     *
+     * <p>Must be invoked from the main thread.</p>
+     */
+    public void flush() {
+
+        List<Map.Entry<Player, PlayerQueue>> entries = new ArrayList<>(_queues.entrySet());
+        if (entries.isEmpty())
+            return;
+
+        Budget global = new Budget(_globalBytesPerTick, _globalPacketsPerTick);
+        boolean hasRemaining = false;
+
+        int offset = _flushOffset % entries.size();
+        _flushOffset = offset + 1;
+
+        for (int i=0; i < entries.size(); i++) {
+
+            Map.Entry<Player, PlayerQueue> entry = entries.get((offset + i) % entries.size());
+
+            Player player = entry.getKey();
+            PlayerQueue queue = entry.getValue();
+
+            if (!player.isOnline()) {
+                _queues.remove(player);
+                continue;
+            }
+
+            List<ChunkResend> chunks;
+            List<ChunkRepairs> repairs;
+            World repairWorld;
+
+            synchronized (queue) {
+
+                if (queue.chunks.isEmpty() && queue.repairs.isEmpty())
+                    continue;
+
+                chunks = new ArrayList<>(queue.chunks.values());
+                repairs = queue.repairs.values();
+                repairWorld = queue.repairWorld;
+
+                queue.repairs.clear();
+            }
+
+            if (!chunks.isEmpty() && !global.isSpent()) {
+                sendChunks(player, queue, chunks, global);
+            }
+
+            if (repairWorld == player.getWorld()) {
+                for (ChunkRepairs chunkRepairs : repairs) {
+                    sendRepairs(player, repairWorld, chunkRepairs);
+                }
+            }
+
+            synchronized (queue) {
+                if (queue.chunks.isEmpty()) {
+                    queue.totalQueued = 0;
+                }
+                else {
+                    hasRemaining = true;
+                }
+            }
+        }
+
+        if (hasRemaining)
+            scheduleFlush();
+    }
+
+    /*
+     * Send the queued chunks closest to a player until the player or global
+     * budget is spent.
+     */
+    private void sendChunks(Player player, PlayerQueue queue, List<ChunkResend> chunks, Budget global) {
+
+        final int playerX = player.getLocation().getBlockX() >> 4;
+        final int playerZ = player.getLocation().getBlockZ() >> 4;
+
+        Collections.sort(chunks, new Comparator<ChunkResend>() {
+            @Override
+            public int compare(ChunkResend o1, ChunkResend o2) {
+                return Integer.compare(o1.distance(playerX, playerZ), o2.distance(playerX, playerZ));
+            }
+        });
+
+        Budget budget = new Budget(_playerBytesPerTick, _playerPacketsPerTick);
+
+        for (ChunkResend resend : chunks) {
+
+            if (budget.isSpent() || global.isSpent())
+                break;
+
+            synchronized (queue) {
+                if (queue.chunks.get(resend.key) == resend)
+                    queue.chunks.remove(resend.key);
+            }
+
+            int bytes = resend.sender.send();
+            if (bytes <= 0)
+                continue;
+
+            budget.spend(bytes);
+            global.spend(bytes);
+
+            _sentChunks.incrementAndGet();
+            _sentBytes.addAndGet(bytes);
+        }
+    }
+
+    /*
+     * Send the repaired phantom blocks of a chunk to a player.
+     */
+    private void sendRepairs(Player player, World world, ChunkRepairs repairs) {
+
+        INmsHandler nms = PhantomPackets.getNms();
+
+        short[] positions = new short[repairs.size];
+        int[] combinedIds = new int[repairs.size];
+        int totalBlocks = 0;
+
+        for (int i=0; i < repairs.size; i++) {
+
+            int position = repairs.positions[i];
+            int x = (repairs.chunkX << 4) + ((position >> 12) & 0xF);
+            int y = position & 0xFF;
+            int z = (repairs.chunkZ << 4) + ((position >> 8) & 0xF);
+
+            IPhantomBlock block = _manager.getVisibleBlockAt(player, x, y, z);
+            if (block == null)
+                continue;
+
+            positions[totalBlocks] = (short)position;
+            combinedIds[totalBlocks] = Utils.getCombinedId(block.getMaterial(), block.getData());
+            totalBlocks++;
+        }
+
+        PacketContainer packet;
+
+        if (totalBlocks == 0) {
+            return;
+        }
+        else if (totalBlocks == 1) {
+            int position = positions[0];
+            int combinedId = combinedIds[0];
+
+            packet = nms.getBlockChangeFactory(
+                    (repairs.chunkX << 4) + ((position >> 12) & 0xF),
+                    position & 0xFF,
+                    (repairs.chunkZ << 4) + ((position >> 8) & 0xF),
+                    Utils.getMaterialFromCombinedId(combinedId),
+                    Utils.getDataFromCombinedId(combinedId)).createPacket(world);
+        }
+        else {
+            packet = nms.createMultiBlockChangePacket(
+                    repairs.chunkX, repairs.chunkZ, positions, combinedIds, totalBlocks);
+
+            _merged.addAndGet(totalBlocks);
+        }
+
+        try {
+            ProtocolLibrary.getProtocolManager().sendServerPacket(player, packet);
+        } catch (InvocationTargetException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /*
+     * Get or create the queue for a player.
+     */
+    private PlayerQueue getQueue(Player player) {
+
+        PlayerQueue queue = _queues.get(player);
+        if (queue == null) {
+            queue = new PlayerQueue();
+            PlayerQueue current = _queues.putIfAbsent(player, queue);
+
+            if (current != null)
+                queue = current;
+        }
+        return queue;
+    }
+
+    /*
+     * Save a budget to the data node.
+     */
+    private void save(String key, int value) {
+        _dataNode.set(key, value);
+        _dataNode.save();
+    }
+
+    /*
+     * Schedule the queue to be flushed on the next tick.
+     */
+    private void scheduleFlush() {
+        if (_isFlushScheduled.compareAndSet(false, true))
+            Scheduler.runTaskLater(PhantomPackets.getPlugin(), 1, _flushTask);
+    }
+
+    /**
+     * Sends a queued chunk resend.
+     */
+    public interface IChunkSender {
+
+        /**
+         * Send the chunk.
+         *
+         * @return  The estimated number of bytes sent or 0 if nothing was sent.
+         */
+        int send();
+    }
+
+    private static class PlayerQueue {
+
+        final Map<Object, ChunkResend> chunks = new HashMap<>(10);
+        final LongHashMap<ChunkRepairs> repairs = new LongHashMap<>(5);
+        World repairWorld;
+
+        // chunks queued since the queue was last empty
+        int totalQueued;
+    }
+
+    private static class ChunkResend {
+
+        final Object key;
+        final int chunkX;
+        final int chunkZ;
+        final IChunkSender sender;
+
+        ChunkResend(Object key, int chunkX, int chunkZ, IChunkSender sender) {
+            this.key = key;
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.sender = sender;
+        }
+
+        int distance(int x, int z) {
+            int deltaX = chunkX - x;
+            int deltaZ = chunkZ - z;
+            return deltaX * deltaX + deltaZ * deltaZ;
+        }
+    }
+
+    private static class Budget {
+
+        int bytes;
+        int packets;
+
+        Budget(int bytes, int packets) {
+            this.bytes = bytes;
+            this.packets = packets;
+        }
+
+        boolean isSpent() {
+            return bytes <= 0 || packets <= 0;
+        }
+
+        void spend(int bytes) {
+            this.bytes -= bytes;
+            this.packets--;
+        }
+    }
+
+    private static class ChunkRepairs {
+
+        final int chunkX;
+        final int chunkZ;
+
+        // packed positions, relative X in bits 12-15, relative Z in bits 8-11 and Y in bits 0-7.
+        short[] positions = new short[4];
+        int size;
+
+        ChunkRepairs(int chunkX, int chunkZ) {
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+        }
+
+        boolean add(short position) {
+
+            for (int i=0; i < size; i++) {
+                if (positions[i] == position)
+                    return false;
+            }
+
+            if (size == positions.length)
+                positions = Arrays.copyOf(positions, size * 2);
+
+            positions[size++] = position;
+            return true;
+        }
+    }
+}
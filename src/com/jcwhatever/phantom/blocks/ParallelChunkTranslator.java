@@ -0,0 +1,236 @@
+/*
+ * This file is part of PhantomPackets for Bukkit, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) JCThePants (www.jcwhatever.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jcwhatever.phantom.blocks;
+
+import com.jcwhatever.nucleus.mixins.IDisposable;
+import com.jcwhatever.nucleus.storage.IDataNode;
+import com.jcwhatever.nucleus.utils.PreCon;
+import com.jcwhatever.phantom.data.IChunkData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import javax.annotation.Nullable;
+
+/**
+ * Translates the chunks of a map chunk bulk packet in parallel.
+ *
+ * <p>Each chunk in a bulk packet has its own data array, so chunks can be
+ * translated independently. When enabled and the number of chunks reaches the
+ * threshold, the chunks are split into partitions that are translated by a
+ * bounded fork join pool. The calling thread translates the first partition and
+ * waits for the rest. Smaller bulks are translated sequentially on the calling
+ * thread.</p>
+ *
+ * <p>Disabled by default. The settings are stored in the plugin data node under
+ * "bulk-translation".</p>
+ */
+public class ParallelChunkTranslator implements IDisposable {
+
+    private final IDataNode _dataNode;
+    private final int _parallelism;
+
+    private volatile boolean _isEnabled;
+    private volatile int _threshold;
+    private volatile boolean _isDisposed;
+
+    private ForkJoinPool _pool;
+
+    /**
+     * Constructor.
+     *
+     * @param dataNode  The data node to load and save settings from.
+     */
+    public ParallelChunkTranslator(IDataNode dataNode) {
+        PreCon.notNull(dataNode);
+
+        _dataNode = dataNode;
+        _isEnabled = dataNode.getBoolean("parallel");
+        _threshold = dataNode.getInteger("threshold", 8);
+        _parallelism = Math.max(1, dataNode.getInteger("parallelism",
+                Math.min(4, Runtime.getRuntime().availableProcessors() - 1)));
+    }
+
+    /**
+     * Determine if parallel translation is enabled.
+     */
+    public boolean isEnabled() {
+        return _isEnabled;
+    }
+
+    /**
+     * Set parallel translation enabled.
+     *
+     * @param isEnabled  True to enable, otherwise false.
+     */
+    public void setEnabled(boolean isEnabled) {
+        _isEnabled = isEnabled;
+
+        _dataNode.set("parallel", isEnabled);
+        _dataNode.save();
+    }
+
+    /**
+     * Get the minimum number of chunks in a bulk packet before
+     * it is translated in parallel.
+     */
+    public int getThreshold() {
+        return _threshold;
+    }
+
+    /**
+     * Set the minimum number of chunks in a bulk packet before
+     * it is translated in parallel.
+     *
+     * @param threshold  The number of chunks.
+     */
+    public void setThreshold(int threshold) {
+        PreCon.positiveNumber(threshold);
+
+        _threshold = threshold;
+
+        _dataNode.set("threshold", threshold);
+        _dataNode.save();
+    }
+
+    /**
+     * Get the number of pool threads.
+     */
+    public int getParallelism() {
+        return _parallelism;
+    }
+
+    /**
+     * Translate chunk data.
+     *
+     * @param chunks       The chunk data to translate.
+     * @param translation  The translation to run on each chunk. Must be thread safe.
+     */
+    public void translate(final IChunkData[] chunks, final IChunkTranslation translation) {
+        PreCon.notNull(chunks);
+        PreCon.notNull(translation);
+
+        if (!_isEnabled || _isDisposed || chunks.length < _threshold || chunks.length < 2) {
+            translate(chunks, 0, chunks.length, translation);
+            return;
+        }
+
+        ForkJoinPool pool = getPool();
+
+        // disposed while translating
+        if (pool == null) {
+            translate(chunks, 0, chunks.length, translation);
+            return;
+        }
+
+        // the calling thread translates one partition
+        int partitions = Math.min(_parallelism + 1, chunks.length);
+        int partitionSize = (chunks.length + partitions - 1) / partitions;
+
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(partitions - 1);
+
+        for (int start = partitionSize; start < chunks.length; start += partitionSize) {
+
+            final int from = start;
+            final int to = Math.min(start + partitionSize, chunks.length);
+
+            try {
+                tasks.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        translate(chunks, from, to, translation);
+                    }
+                }));
+            }
+            catch (RejectedExecutionException e) {
+                // the pool was shut down by dispose
+                translate(chunks, from, to, translation);
+            }
+        }
+
+        translate(chunks, 0, Math.min(partitionSize, chunks.length), translation);
+
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return _isDisposed;
+    }
+
+    @Override
+    public void dispose() {
+
+        _isDisposed = true;
+
+        synchronized (this) {
+            if (_pool != null) {
+                _pool.shutdown();
+                _pool = null;
+            }
+        }
+    }
+
+    /*
+     * Get the pool, created the first time it is needed.
+     * Returns null if disposed.
+     */
+    @Nullable
+    private synchronized ForkJoinPool getPool() {
+        if (_isDisposed)
+            return null;
+
+        if (_pool == null)
+            _pool = new ForkJoinPool(_parallelism);
+
+        return _pool;
+    }
+
+    /*
+     * Translate a range of chunk data.
+     */
+    private static void translate(IChunkData[] chunks, int from, int to, IChunkTranslation translation) {
+        for (int i = from; i < to; i++) {
+            translation.translate(chunks[i]);
+        }
+    }
+
+    /**
+     * Translation run on each chunk.
+     */
+    public interface IChunkTranslation {
+
+        /**
+         * Translate chunk data.
+         *
+         * @param chunkData  The chunk data.
+         */
+        void translate(IChunkData chunkData);
+    }
+}
@@ -29,23 +29,23 @@ import com.comphenix.protocol.events.PacketContainer;
 import com.jcwhatever.nucleus.collections.players.PlayerSet;
 import com.jcwhatever.nucleus.managed.scheduler.Scheduler;
 import com.jcwhatever.nucleus.utils.PreCon;
-import com.jcwhatever.nucleus.utils.ThreadSingletons;
 import com.jcwhatever.nucleus.utils.coords.Coords2Di;
-import com.jcwhatever.nucleus.utils.coords.ICoords2Di;
-import com.jcwhatever.nucleus.utils.coords.MutableCoords2Di;
-import com.jcwhatever.nucleus.utils.performance.pool.IPoolElementFactory;
-import com.jcwhatever.nucleus.utils.performance.pool.SimplePool;
-import com.jcwhatever.nucleus.utils.player.PlayerUtils;
 import com.jcwhatever.phantom.*;
+import com.jcwhatever.phantom.blocks.PacketQueue.IChunkSender;
+import com.jcwhatever.phantom.blocks.ResendPolicy.ResendType;
+import com.jcwhatever.phantom.collections.LongHashMap;
 import com.jcwhatever.phantom.data.ChunkBulkData;
 import com.jcwhatever.phantom.data.ChunkData;
+import com.jcwhatever.phantom.data.ChunkOverlay;
 import com.jcwhatever.phantom.data.IChunkData;
+import com.jcwhatever.phantom.nms.INmsHandler;
 import com.jcwhatever.phantom.packets.factory.IMultiBlockChangeFactory;
 import com.jcwhatever.phantom.packets.IMultiBlockChangePacket;
 import com.jcwhatever.phantom.packets.PacketBlock;
-import org.bukkit.Location;
+import org.bukkit.Chunk;
 import org.bukkit.Material;
 import org.bukkit.World;
+import org.bukkit.World.Environment;
 import org.bukkit.block.Block;
 import org.bukkit.entity.Player;
 
@@ -58,32 +58,40 @@ import java.util.*;
  */
 public class PhantomBlocks implements IPhantomBlockContext {
 
-    private static final ThreadSingletons<Location> PLAYER_LOCATIONS = new ThreadSingletons<>(
-            new ThreadSingletons.ISingletonFactory<Location>() {
-                @Override
-                public Location create(Thread thread) {
-                    return new Location(null, 0, 0, 0);
-                }
-            });
-
-    private static final ThreadSingletons<MutableCoords2Di> COORDS = new ThreadSingletons<>(
-            new ThreadSingletons.ISingletonFactory<MutableCoords2Di>() {
-                @Override
-                public MutableCoords2Di create(Thread thread) {
-                    return new MutableCoords2Di();
-                }
-            });
+    // number of block changes remembered per chunk for delta view refreshes, power of 2
+    private static final int JOURNAL_SIZE = 512;
 
-    private final IBlockContextManager _manager;
+    private final BlockContextManager _manager;
+    private final IPhantomBlockContext _owner;
     private final World _world;
     private final String _name;
     private final String _searchName;
-    private final Map<ICoords2Di, PhantomChunk> _chunks = new HashMap<>(25);
+    private final LongHashMap<PhantomChunk> _chunks = new LongHashMap<>(25);
 
     private Set<Player> _viewers;
-    private boolean _ignoresAir;
-    private ViewPolicy _viewPolicy = ViewPolicy.WHITELIST;
-    private boolean _isDisposed;
+    private volatile boolean _ignoresAir;
+    private volatile int _priority;
+    private volatile ViewPolicy _viewPolicy = ViewPolicy.WHITELIST;
+    private volatile boolean _isDisposed;
+
+    // immutable copy of the viewers read by packet handlers
+    private volatile Set<Player> _publishedViewers = Collections.emptySet();
+
+    // chunks with changes that have not been published
+    private final Set<PhantomChunk> _dirtyChunks = new HashSet<>(10);
+    private boolean _isPublishScheduled;
+
+    // the current publish epoch. Sections from an earlier epoch are
+    // part of a published snapshot and are copied before being modified.
+    private int _epoch;
+
+    private final Runnable _publishTask = new Runnable() {
+        @Override
+        public void run() {
+            _isPublishScheduled = false;
+            publish();
+        }
+    };
 
     /**
      * Constructor.
@@ -92,12 +100,27 @@ public class PhantomBlocks implements IPhantomBlockContext {
      * @param world    The world the context is for.
      * @param name     The name of the context.
      */
-    public PhantomBlocks(IBlockContextManager manager, World world, String name) {
+    public PhantomBlocks(BlockContextManager manager, World world, String name) {
+        this(manager, null, world, name);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param manager  The owning context manager.
+     * @param owner    The context that is registered with the manager and encapsulates
+     *                 the new instance. Null if the new instance is registered directly.
+     * @param world    The world the context is for.
+     * @param name     The name of the context.
+     */
+    public PhantomBlocks(BlockContextManager manager, @Nullable IPhantomBlockContext owner,
+                         World world, String name) {
         PreCon.notNull(manager);
         PreCon.notNull(world);
         PreCon.notNullOrEmpty(name);
 
         _manager = manager;
+        _owner = owner != null ? owner : this;
         _world = world;
         _name = name;
         _searchName = name.toLowerCase();
@@ -123,6 +146,23 @@ public class PhantomBlocks implements IPhantomBlockContext {
         return _manager;
     }
 
+    @Override
+    public int getPriority() {
+        return _priority;
+    }
+
+    @Override
+    public void setPriority(int priority) {
+
+        if (_priority == priority)
+            return;
+
+        _priority = priority;
+
+        _manager.reindex(_owner);
+        refreshChunks();
+    }
+
     @Override
     public boolean ignoresAir() {
         return _ignoresAir;
@@ -134,7 +174,16 @@ public class PhantomBlocks implements IPhantomBlockContext {
         if (_ignoresAir == ignoresAir)
             return;
 
-        _ignoresAir = true;
+        _ignoresAir = ignoresAir;
+
+        for (PhantomChunk chunk : _chunks.values()) {
+            chunk.invalidate(0xFFFF);
+
+            // the visibility of every block changed, viewers need a full resend
+            chunk.sentRevisions = null;
+            chunk.deltaPacket = null;
+        }
+
         refreshView();
     }
 
@@ -144,7 +193,13 @@ public class PhantomBlocks implements IPhantomBlockContext {
         if (_chunks.isEmpty())
             return;
 
-        PhantomChunk chunk = _chunks.get(matcher(packet.getChunkX(), packet.getChunkZ()));
+        PhantomChunk chunk = _chunks.get(LongHashMap.key(packet.getChunkX(), packet.getChunkZ()));
+        if (chunk == null)
+            return;
+
+        ChunkSnapshot snapshot = chunk.snapshot;
+        if (snapshot.totalBlocks == 0)
+            return;
 
         for (PacketBlock block : packet) {
             int x = block.getX();
@@ -154,11 +209,13 @@ public class PhantomBlocks implements IPhantomBlockContext {
             int relativeX = getRelativeCoord(x, packet.getChunkX());
             int relativeZ = getRelativeCoord(z, packet.getChunkZ());
 
-            PhantomBlock phantomBlock = chunk.getRelativeBlock(relativeX, y, relativeZ);
-            if (phantomBlock == null)
+            if (!snapshot.hasBlock(relativeX, y, relativeZ))
                 continue;
 
-            block.setBlock(phantomBlock.getMaterial(), phantomBlock.getData());
+            int combinedId = snapshot.getCombinedId(relativeX, y, relativeZ);
+
+            block.setBlock(
+                    Utils.getMaterialFromCombinedId(combinedId), Utils.getDataFromCombinedId(combinedId));
         }
     }
 
@@ -170,29 +227,9 @@ public class PhantomBlocks implements IPhantomBlockContext {
         ChunkData data = PhantomPackets.getNms()
                 .getChunkData(packet, _world);
 
-        if (data.getData() == null)
-            return;
+        translateChunkData(player, data);
 
-        if (data.getBlockSize() > data.getData().length)
-            return;
-
-        if (data.getSectionMask() == 0) {
-
-            PhantomChunk chunk = _chunks.get(matcher(data.getX(), data.getZ()));
-            if (chunk != null) {
-
-                ChunkResender resender = CHUNK_SENDER_POOL.retrieve();
-                assert resender != null;
-
-                resender.init(this, player);
-                resender.toResend.add(chunk);
-
-                Scheduler.runTaskLater(PhantomPackets.getPlugin(), 5, resender);
-            }
-        }
-        else {
-            translateChunkData(data);
-        }
+        PhantomPackets.getNms().saveChunkData(packet, data);
     }
 
     @Override
@@ -206,56 +243,55 @@ public class PhantomBlocks implements IPhantomBlockContext {
         IChunkData[] dataArray = bulkData.getChunkData();
 
         for (IChunkData data : dataArray) {
+            translateChunkData(player, data);
+        }
 
-            if (data.getSectionMask() == 0) {
+        PhantomPackets.getNms().saveChunkBulkData(packet, bulkData);
+    }
 
-                PhantomChunk chunk = _chunks.get(matcher(data.getX(), data.getZ()));
-                if (chunk != null) {
+    @Override
+    public void translateChunkData(Player player, IChunkData data) {
+        if (_chunks.isEmpty())
+            return;
 
-                    ChunkResender resender = CHUNK_SENDER_POOL.retrieve();
-                    assert resender != null;
+        PhantomChunk chunk = _chunks.get(LongHashMap.key(data.getX(), data.getZ()));
+        if (chunk == null)
+            return;
 
-                    resender.init(this, player);
-                    resender.toResend.add(chunk);
+        ChunkSnapshot snapshot = chunk.snapshot;
+        if (snapshot.totalBlocks == 0)
+            return;
 
-                    Scheduler.runTaskLater(PhantomPackets.getPlugin(), 5, resender);
-                }
-            }
-            else {
-                translateChunkData(data);
-            }
-        }
-    }
+        if (data.isUnload() || data.getData() == null)
+            return;
 
-    private static final SimplePool<ChunkResender> CHUNK_SENDER_POOL = new SimplePool<ChunkResender>(30,
-            new IPoolElementFactory<ChunkResender>() {
-                @Override
-                public ChunkResender create() {
-                    return new ChunkResender();
-                }
-            });
+        if (data.getStartIndex() + data.getChunkSize() > data.getData().length)
+            return;
 
-    private static class ChunkResender implements Runnable {
+        // sections missing from continuous data are added by the overlay
+        snapshot.overlay.applyTo(data);
+    }
 
-        PhantomBlocks blocks;
-        Player player;
-        List<PhantomChunk> toResend = new ArrayList<>(10);
+    /**
+     * Publish block changes to packet handlers.
+     *
+     * <p>Packet handlers run on network threads and only read published snapshots
+     * of the context's chunks. Changes are published automatically on the tick
+     * after they are made and before the context sends its own packets.</p>
+     *
+     * <p>Must be invoked from the main thread.</p>
+     */
+    public void publish() {
 
-        void init(PhantomBlocks blocks, Player player) {
-            this.blocks = blocks;
-            this.player = player;
-        }
+        if (_dirtyChunks.isEmpty())
+            return;
 
-        @Override
-        public void run() {
-            for (PhantomChunk chunk : toResend) {
-                blocks.resendChunk(player, chunk);
-            }
-            toResend.clear();
-            player = null;
-            blocks = null;
-            CHUNK_SENDER_POOL.recycle(this);
+        for (PhantomChunk chunk : _dirtyChunks) {
+            chunk.publish();
         }
+
+        _dirtyChunks.clear();
+        _epoch++;
     }
 
     @Override
@@ -264,7 +300,7 @@ public class PhantomBlocks implements IPhantomBlockContext {
         int chunkX = x >> 4;
         int chunkZ = z >> 4;
 
-        PhantomChunk chunkContext = _chunks.get(matcher(chunkX, chunkZ));
+        PhantomChunk chunkContext = _chunks.get(LongHashMap.key(chunkX, chunkZ));
         if (chunkContext == null)
             return getBlockFromWorld(x, y, z);
 
@@ -282,7 +318,7 @@ public class PhantomBlocks implements IPhantomBlockContext {
     @Override
     public IPhantomBlock getPhantomBlock(int x, int y, int z) {
 
-        PhantomChunk chunk = _chunks.get(matcher(x >> 4, z >> 4));
+        PhantomChunk chunk = _chunks.get(LongHashMap.key(x >> 4, z >> 4));
         if (chunk == null)
             return null;
 
@@ -292,10 +328,44 @@ public class PhantomBlocks implements IPhantomBlockContext {
         return chunk.getRelativeBlock(relativeX, y, relativeZ);
     }
 
+    @Nullable
+    @Override
+    public IPhantomBlock getPublishedBlock(int x, int y, int z) {
+
+        PhantomChunk chunk = _chunks.get(LongHashMap.key(x >> 4, z >> 4));
+        if (chunk == null)
+            return null;
+
+        ChunkSnapshot snapshot = chunk.snapshot;
+
+        int relativeX = getRelativeCoord(x, chunk.getX());
+        int relativeZ = getRelativeCoord(z, chunk.getZ());
+
+        if (!snapshot.hasBlock(relativeX, y, relativeZ))
+            return null;
+
+        int combinedId = snapshot.getCombinedId(relativeX, y, relativeZ);
+
+        PhantomBlock block = new PhantomBlock(x, y, z,
+                Utils.getMaterialFromCombinedId(combinedId), Utils.getDataFromCombinedId(combinedId));
+        block.isPublished = true;
+        return block;
+    }
+
     @Nullable
     @Override
     public IPhantomChunk getPhantomChunk(int x, int z) {
-        return _chunks.get(matcher(x, z));
+        return _chunks.get(LongHashMap.key(x, z));
+    }
+
+    @Override
+    public Collection<IPhantomChunk> getPhantomChunks() {
+        return new ArrayList<IPhantomChunk>(_chunks.values());
+    }
+
+    @Override
+    public IPhantomEditSession beginEdit() {
+        return new EditSession();
     }
 
     @Override
@@ -312,6 +382,10 @@ public class PhantomBlocks implements IPhantomBlockContext {
 
         _viewPolicy = viewPolicy;
 
+        for (PhantomChunk chunk : _chunks.values()) {
+            _manager.getOverlayCache().invalidate(_world, chunk.x, chunk.z);
+        }
+
         refreshChunks();
     }
 
@@ -324,9 +398,9 @@ public class PhantomBlocks implements IPhantomBlockContext {
 
         switch (_viewPolicy) {
             case WHITELIST:
-                return _viewers != null && _viewers.contains(player);
+                return _publishedViewers.contains(player);
             case BLACKLIST:
-                return _viewers == null || !_viewers.contains(player);
+                return !_publishedViewers.contains(player);
             default:
                 throw new AssertionError();
         }
@@ -347,6 +421,7 @@ public class PhantomBlocks implements IPhantomBlockContext {
             _viewers = new PlayerSet(PhantomPackets.getPlugin());
 
         boolean added = _viewers.add(player);
+        publishViewers();
         resendChunks(player);
         return added;
     }
@@ -356,6 +431,7 @@ public class PhantomBlocks implements IPhantomBlockContext {
         PreCon.notNull(player);
 
         if (_viewers != null && _viewers.remove(player)) {
+            publishViewers();
             resendChunks(player);
             return true;
         }
@@ -371,6 +447,7 @@ public class PhantomBlocks implements IPhantomBlockContext {
         List<Player> players = getViewers();
 
         _viewers.clear();
+        publishViewers();
 
         switch (_viewPolicy) {
             case WHITELIST:
@@ -409,8 +486,11 @@ public class PhantomBlocks implements IPhantomBlockContext {
     }
 
     public final void refreshChunks() {
-        for (ICoords2Di coords : _chunks.keySet()) {
-            _world.refreshChunk(coords.getX(), coords.getZ());
+
+        publish();
+
+        for (PhantomChunk chunk : _chunks.values()) {
+            _world.refreshChunk(chunk.x, chunk.z);
         }
     }
 
@@ -429,6 +509,8 @@ public class PhantomBlocks implements IPhantomBlockContext {
 
         if (_viewers != null)
             _viewers.clear();
+
+        _publishedViewers = Collections.emptySet();
     }
 
     /*
@@ -439,49 +521,59 @@ public class PhantomBlocks implements IPhantomBlockContext {
     }
 
     /*
-     * Set and get the chunk matcher instance.
+     * Create a new phantom block from a world block.
      */
-    private ICoords2Di matcher(int x, int z) {
-        MutableCoords2Di coords = COORDS.get();
-        coords.setX(x);
-        coords.setZ(z);
-        return coords;
+    private IPhantomBlock getBlockFromWorld(int x, int y, int z) {
+
+        Block block = _world.getBlockAt(x, y, z);
+        return new PhantomBlock(x, y, z, block.getType(), block.getData());
     }
 
     /*
-     * Translate the contexts data into a chunk data instance.
+     * Get a phantom chunk, creating it if it does not exist.
      */
-    private void translateChunkData(IChunkData chunkData) {
+    private PhantomChunk getOrCreateChunk(int chunkX, int chunkZ) {
 
-        PhantomChunk chunk = _chunks.get(matcher(chunkData.getX(), chunkData.getZ()));
-        if (chunk == null || chunk.totalBlocks == 0)
-            return;
+        long key = LongHashMap.key(chunkX, chunkZ);
 
-        for (int i=0; i < chunk.blocks.length; i++) {
+        PhantomChunk chunk = _chunks.get(key);
+        if (chunk == null) {
+            chunk = new PhantomChunk(chunkX, chunkZ);
+            _chunks.put(key, chunk);
+            _manager.updateChunkIndex(_owner, chunkX, chunkZ, true);
+        }
+        return chunk;
+    }
 
-            IPhantomBlock[] blocks = chunk.blocks[i];
-            if (blocks == null)
-                continue;
+    /*
+     * Replace the viewers read by packet handlers with a copy of the current viewers.
+     */
+    private void publishViewers() {
 
-            for (IPhantomBlock block : blocks) {
+        if (_viewers == null || _viewers.isEmpty()) {
+            _publishedViewers = Collections.emptySet();
+            return;
+        }
 
-                if (block == null || block.getMaterial() == Material.AIR && ignoresAir())
-                    continue;
+        // identity set so a player that reconnects is not matched by a stale instance
+        Set<Player> viewers = Collections.newSetFromMap(new IdentityHashMap<Player, Boolean>(_viewers.size()));
+        viewers.addAll(_viewers);
 
-                chunkData.setBlock(
-                        block.getRelativeX(), block.getY(), block.getRelativeZ(),
-                        block.getMaterial(), block.getData());
-            }
-        }
+        _publishedViewers = Collections.unmodifiableSet(viewers);
     }
 
     /*
-     * Create a new phantom block from a world block.
+     * Queue a chunk to be published on the next tick.
      */
-    private IPhantomBlock getBlockFromWorld(int x, int y, int z) {
+    private void markDirty(PhantomChunk chunk) {
 
-        Block block = _world.getBlockAt(x, y, z);
-        return new PhantomBlock(x, y, z, block.getType(), block.getData());
+        _dirtyChunks.add(chunk);
+
+        if (_isPublishScheduled)
+            return;
+
+        _isPublishScheduled = true;
+        Scheduler.runTaskLater(PhantomPackets.getPlugin(), 1, _publishTask);
     }
 
     /*
@@ -492,44 +584,137 @@ public class PhantomBlocks implements IPhantomBlockContext {
         if (!player.getWorld().equals(getWorld()))
             return;
 
+        publish();
+
         for (PhantomChunk chunk : _chunks.values()) {
 
             resendChunk(player, chunk);
         }
     }
 
+    /*
+     * Queue a chunk to be resent to a player on the next tick.
+     */
     private void resendChunk(final Player player, final PhantomChunk chunk) {
 
-        Location location = player.getLocation(PLAYER_LOCATIONS.get());
+        _manager.getPacketQueue().queueChunk(player, chunk, chunk.getX(), chunk.getZ(),
+                new IChunkSender() {
+                    @Override
+                    public int send() {
+                        return sendChunk(player, chunk);
+                    }
+                });
+    }
 
-        if (!Utils.isChunkNearby(chunk.getX(), chunk.getZ(), location))
-            return;
+    /*
+     * Send the current state of a chunk to a player. Returns the estimated
+     * number of bytes sent.
+     */
+    private int sendChunk(final Player player, final PhantomChunk chunk) {
 
-        IMultiBlockChangeFactory factory = chunk.getMultiBlockPacketFactory();
+        // map chunk resends are translated from the published snapshot, publish
+        // first so the recorded revision matches the blocks that are sent.
+        publish();
 
-        PacketContainer packet = canSee(player)
-                ? factory.createPacket(ignoresAir())
-                : factory.createPacket(chunk.coords.getChunk(_world));
+        // the chunk is translated when the client loads it
+        if (!_manager.getChunkTracker().isLoaded(player, _world, chunk.getX(), chunk.getZ()))
+            return 0;
 
-        if (PlayerUtils.getWorldSessionTime(player) < 1500 ||
-                !_world.isChunkLoaded(chunk.getX(), chunk.getZ())) {
+        INmsHandler nms = PhantomPackets.getNms();
+        ResendPolicy policy = _manager.getResendPolicy();
+        Chunk worldChunk = chunk.coords.getChunk(_world);
+        boolean hasSkylight = _world.getEnvironment() == Environment.NORMAL;
+        int worldMask = nms.getChunkSectionMask(worldChunk);
 
-            Msg.debug("Rescheduling resend chunk [{0}, {1}]", chunk.getX(), chunk.getZ());
+        PacketContainer packet = null;
+        int size = 0;
 
-            Scheduler.runTaskLater(PhantomPackets.getPlugin(), 31, new Runnable() {
-                @Override
-                public void run() {
-                    if (_world.isChunkLoaded(chunk.getX(), chunk.getZ())) {
-                        resendChunk(player, chunk);
-                    }
-                    else {
-                        Msg.debug("Failed to resend chunk [{0}, {1}] because it's not loaded.", chunk.getX(), chunk.getZ());
-                    }
-                }
-            });
+        if (canSee(player)) {
+
+            int revision = chunk.changeRevision;
+            Integer sentRevision = chunk.getSentRevision(player);
+
+            if (sentRevision != null) {
+
+                // the player already has the current blocks
+                if (sentRevision == revision)
+                    return 0;
+
+                packet = chunk.createDeltaPacket(sentRevision);
+                if (packet != null)
+                    size = policy.recordMultiBlockChange(revision - sentRevision);
+            }
+
+            if (packet == null) {
+
+                // a translated map chunk can only show phantom blocks in sections
+                // the world chunk already has.
+                int sections = ResendPolicy.getMapChunkSections(
+                        chunk.getOverlay().getSectionMask(), worldMask);
+
+                ResendType type = policy.select(chunk.totalBlocks(), sections, hasSkylight);
+
+                packet = createResendPacket(type, chunk, worldChunk, true);
+                size = ResendPolicy.getEstimatedSize(type, chunk.totalBlocks(), sections, hasSkylight);
+            }
+
+            chunk.setSentRevision(player, revision);
         }
         else {
-            sendPacket(player, packet);
+            // a map chunk can only restore phantom blocks in sections the world chunk has
+            int sections = ResendPolicy.getMapChunkSections(
+                    chunk.getOverlay().getSectionMask(), worldMask);
+            ResendType type = policy.select(chunk.totalBlocks, sections, hasSkylight);
+
+            packet = createResendPacket(type, chunk, worldChunk, false);
+            size = ResendPolicy.getEstimatedSize(type, chunk.totalBlocks, sections, hasSkylight);
+
+            chunk.removeSentRevision(player);
+        }
+
+        if (packet == null)
+            return 0;
+
+        sendPacket(player, packet);
+        return size;
+    }
+
+    /*
+     * Create the packet to resend a chunk with. Map chunks are translated
+     * by the packet listener when they are sent.
+     */
+    @Nullable
+    private PacketContainer createResendPacket(ResendType type, PhantomChunk chunk,
+                                               Chunk worldChunk, boolean isVisible) {
+
+        INmsHandler nms = PhantomPackets.getNms();
+
+        switch (type) {
+            case BLOCK_CHANGE:
+                Iterator<IPhantomBlock> iterator = chunk.iterator();
+
+                // only block is ignored air, the player already has the world block
+                if (!iterator.hasNext())
+                    return null;
+
+                IPhantomBlock block = iterator.next();
+                if (isVisible) {
+                    return nms.getBlockChangeFactory(block.getX(), block.getY(), block.getZ(),
+                            block.getMaterial(), block.getData()).createPacket(_world);
+                }
+
+                Block worldBlock = _world.getBlockAt(block.getX(), block.getY(), block.getZ());
+
+                return nms.getBlockChangeFactory(block.getX(), block.getY(), block.getZ(),
+                        worldBlock.getType(), worldBlock.getData()).createPacket(_world);
+
+            case MAP_CHUNK:
+                return nms.createMapChunkPacket(worldChunk);
+
+            default:
+                return isVisible
+                        ? chunk.getMultiBlockPacketFactory().createPacket(ignoresAir())
+                        : chunk.getMultiBlockPacketFactory().createPacket(worldChunk);
         }
     }
 
@@ -553,9 +738,28 @@ public class PhantomBlocks implements IPhantomBlockContext {
         final Coords2Di coords;
         IMultiBlockChangeFactory factory;
 
-        // chunks are divided into 64 sections, each 4 blocks tall,
-        // containing 1024 blocks per section.
-        final IPhantomBlock[][] blocks = new IPhantomBlock[64][];
+        // chunks are divided into 16 sections, each 16 blocks tall,
+        // containing 4096 blocks per section. Only modified on the main thread.
+        final PhantomSection[] sections = new PhantomSection[16];
+
+        // sections changed since the last published snapshot
+        int dirtySections;
+
+        // ring buffer of the chunk indexes of changed blocks. The change at
+        // revision r is stored at r & (JOURNAL_SIZE - 1).
+        char[] journal;
+        int changeRevision;
+
+        // the change revision last sent to each viewer
+        Map<Player, Integer> sentRevisions;
+
+        // the most recent delta packet, shared by viewers at the same revision
+        PacketContainer deltaPacket;
+        int deltaFromRevision;
+        int deltaToRevision;
+
+        // the state read by packet handlers
+        volatile ChunkSnapshot snapshot = ChunkSnapshot.EMPTY;
 
         int totalBlocks;
         int totalNonAirBlocks;
@@ -599,83 +803,326 @@ public class PhantomBlocks implements IPhantomBlockContext {
             return ignoresAir() ? totalNonAirBlocks : totalBlocks;
         }
 
+        @Override
+        public int getRevision() {
+            return snapshot.revision;
+        }
+
+        @Override
+        public ChunkOverlay getOverlay() {
+            return snapshot.overlay;
+        }
+
         @Nullable
         @Override
         public PhantomBlock getRelativeBlock(int relativeX, int y, int relativeZ) {
 
-            int sectionIndex = (int)Math.floor(y / 4.0D);
-
-            IPhantomBlock[] section = blocks[sectionIndex];
-            if (section == null)
+            if (!hasBlock(relativeX, y, relativeZ))
                 return null;
 
-            int index = ((y % 4) * 16 * 16) + ((relativeZ * 16) + relativeX + 1);
+            return new PhantomBlock(this, (x << 4) + relativeX, y, (z << 4) + relativeZ);
+        }
+
+        /*
+         * Determine if a visible block is set at the specified coordinates.
+         * Reads the working sections, main thread only.
+         */
+        boolean hasBlock(int relativeX, int y, int relativeZ) {
+            return PhantomSection.hasBlock(sections, ignoresAir(), relativeX, y, relativeZ);
+        }
+
+        /*
+         * Get the combined ID of the block at the specified coordinates
+         * or -1 if the block is not set. Reads the working sections, main thread only.
+         */
+        int getCombinedId(int relativeX, int y, int relativeZ) {
+            return PhantomSection.getCombinedId(sections, relativeX, y, relativeZ);
+        }
+
+        void addBlock(int relativeX, int y, int relativeZ, int combinedId) {
+
+            int sectionIndex = y >> 4;
+
+            PhantomSection section = getWritableSection(sectionIndex);
+
+            int index = PhantomSection.index(relativeX, y, relativeZ);
+
+            int oldNonAir = section.totalNonAirBlocks;
+
+            if (section.set(index, combinedId))
+                totalBlocks++;
+
+            journal((sectionIndex << 12) | index);
+
+            totalNonAirBlocks += section.totalNonAirBlocks - oldNonAir;
+            factory = null;
+
+            invalidate(1 << sectionIndex);
+        }
+
+        /*
+         * Copy staged sections into the chunk and invalidate the changed
+         * sections once.
+         */
+        void addBlocks(PhantomSection[] staged) {
+
+            int sectionMask = 0;
+
+            for (int sectionIndex = 0; sectionIndex < staged.length; sectionIndex++) {
+
+                PhantomSection source = staged[sectionIndex];
+                if (source == null)
+                    continue;
+
+                PhantomSection section = getWritableSection(sectionIndex);
+
+                int oldNonAir = section.totalNonAirBlocks;
+
+                for (int index = source.next(0); index != -1; index = source.next(index + 1)) {
+                    if (section.set(index, source.get(index)))
+                        totalBlocks++;
+
+                    journal((sectionIndex << 12) | index);
+                }
+
+                totalNonAirBlocks += section.totalNonAirBlocks - oldNonAir;
+                sectionMask |= 1 << sectionIndex;
+            }
 
-            PhantomBlock block = (PhantomBlock)section[index];
-            if (block != null && ignoresAir() && block.getMaterial() == Material.AIR)
+            if (sectionMask == 0)
+                return;
+
+            factory = null;
+            invalidate(sectionMask);
+        }
+
+        /*
+         * Record a block change in the journal. The chunk index
+         * is (Y << 8) | (relative Z << 4) | relative X.
+         */
+        void journal(int chunkIndex) {
+
+            if (journal == null)
+                journal = new char[JOURNAL_SIZE];
+
+            journal[changeRevision & (JOURNAL_SIZE - 1)] = (char)chunkIndex;
+            changeRevision++;
+        }
+
+        /*
+         * Get the change revision last sent to a player or null if
+         * the player has not been sent the chunk.
+         */
+        @Nullable
+        Integer getSentRevision(Player player) {
+            return sentRevisions != null ? sentRevisions.get(player) : null;
+        }
+
+        void setSentRevision(Player player, int revision) {
+            if (sentRevisions == null)
+                sentRevisions = new WeakHashMap<>(5);
+
+            sentRevisions.put(player, revision);
+        }
+
+        void removeSentRevision(Player player) {
+            if (sentRevisions != null)
+                sentRevisions.remove(player);
+        }
+
+        /*
+         * Create a multi block change packet containing the blocks changed since
+         * the specified revision. Returns null if the journal no longer contains
+         * all of the changes.
+         */
+        @Nullable
+        PacketContainer createDeltaPacket(int fromRevision) {
+
+            int total = changeRevision - fromRevision;
+            if (total < 0 || total > JOURNAL_SIZE || journal == null)
                 return null;
 
-            if (block != null && (block.relativeX != relativeX || block.y != y || block.relativeZ != relativeZ))
-                throw new IllegalStateException("Retrieved block mismatch.");
+            if (deltaPacket != null &&
+                    deltaFromRevision == fromRevision && deltaToRevision == changeRevision) {
+                return deltaPacket;
+            }
+
+            char[] changes = new char[total];
+            for (int i=0; i < total; i++) {
+                changes[i] = journal[(fromRevision + i) & (JOURNAL_SIZE - 1)];
+            }
+
+            // sort so blocks changed more than once are only sent once
+            Arrays.sort(changes);
 
-            return block;
+            short[] positions = new short[total];
+            int[] combinedIds = new int[total];
+            int count = 0;
+            int previous = -1;
+
+            for (char chunkIndex : changes) {
+
+                if (chunkIndex == previous)
+                    continue;
+
+                previous = chunkIndex;
+
+                int relativeX = chunkIndex & 0xF;
+                int relativeZ = (chunkIndex >> 4) & 0xF;
+                int y = chunkIndex >> 8;
+
+                positions[count] = (short)((relativeX << 12) | (relativeZ << 8) | y);
+                combinedIds[count] = getVisibleCombinedId(relativeX, y, relativeZ);
+                count++;
+            }
+
+            deltaPacket = PhantomPackets.getNms().createMultiBlockChangePacket(
+                    x, z, positions, combinedIds, count);
+            deltaFromRevision = fromRevision;
+            deltaToRevision = changeRevision;
+
+            return deltaPacket;
         }
 
-        void addBlock(PhantomBlock block) {
+        /*
+         * Get the combined ID a viewer should see at the specified coordinates.
+         * Returns the world block if there is no visible phantom block.
+         */
+        int getVisibleCombinedId(int relativeX, int y, int relativeZ) {
 
-            int sectionIndex = (int)Math.floor(block.getY() / 4.0D);
+            if (hasBlock(relativeX, y, relativeZ))
+                return getCombinedId(relativeX, y, relativeZ);
+
+            Block block = _world.getBlockAt((x << 4) + relativeX, y, (z << 4) + relativeZ);
+            return Utils.getCombinedId(block.getType(), block.getData());
+        }
 
-            IPhantomBlock[] section = blocks[sectionIndex];
+        /*
+         * Get a section that can be modified in the current epoch.
+         */
+        PhantomSection getWritableSection(int sectionIndex) {
+
+            PhantomSection section = sections[sectionIndex];
             if (section == null) {
-                section = new IPhantomBlock[1024];
-                blocks[sectionIndex] = section;
+                section = new PhantomSection(_epoch);
+                sections[sectionIndex] = section;
+            }
+            else if (section.epoch != _epoch) {
+                // copy on write, the section belongs to a published snapshot
+                section = new PhantomSection(section, _epoch);
+                sections[sectionIndex] = section;
             }
+            return section;
+        }
 
-            int index = ((block.getY() % 4) * 16 * 16) +
-                    ((block.getRelativeZ() * 16) + block.getRelativeX() + 1);
+        /*
+         * Flag sections that need to be published.
+         */
+        void invalidate(int sectionMask) {
+            dirtySections |= sectionMask;
+            markDirty(this);
+        }
 
-            if (section[index] == null) {
-                totalBlocks++;
+        /*
+         * Publish a new snapshot. Unchanged sections and their overlays are
+         * shared with the previous snapshot, changed sections are re-encoded.
+         */
+        void publish() {
+
+            if (dirtySections == 0)
+                return;
+
+            ChunkSnapshot previous = snapshot;
+            boolean ignoresAir = ignoresAir();
+
+            PhantomSection[] published = sections.clone();
+            ChunkOverlay overlay = new ChunkOverlay();
+
+            for (int sectionIndex = 0; sectionIndex < published.length; sectionIndex++) {
+
+                PhantomSection section = published[sectionIndex];
+                if (section == null)
+                    continue;
+
+                if ((dirtySections & (1 << sectionIndex)) == 0) {
+                    if (previous.overlay.hasSection(sectionIndex)) {
+                        overlay.setSection(sectionIndex,
+                                previous.overlay.getBlocks(sectionIndex), previous.overlay.getMask(sectionIndex));
+                    }
+                    continue;
+                }
+
+                byte[] blocks = new byte[ChunkOverlay.SECTION_BLOCKS * ChunkData.BLOCK_SIZE];
+                long[] mask = section.occupied.clone();
+
+                for (int index = section.next(0); index != -1; index = section.next(index + 1)) {
+
+                    int combinedId = section.get(index);
+
+                    if (ignoresAir && PhantomSection.isAir(combinedId)) {
+                        mask[index >> 6] &= ~(1L << index);
+                        continue;
+                    }
+
+                    ChunkOverlay.encode(blocks, index, Utils.getLegacyIdFromCombinedId(combinedId));
+                }
 
-                if (block.getMaterial() != Material.AIR)
-                    totalNonAirBlocks++;
+                overlay.setSection(sectionIndex, blocks, mask);
             }
 
-            section[index] = block;
-            factory = null;
+            dirtySections = 0;
+
+            snapshot = new ChunkSnapshot(published, overlay, ignoresAir,
+                    previous.revision + 1, totalBlocks());
+
+            _manager.getOverlayCache().invalidate(_world, x, z);
         }
 
+        /**
+         * Iterate over the blocks in the chunk.
+         *
+         * <p>The iterator reuses a single block instance that is updated
+         * on each call to {@link Iterator#next}.</p>
+         */
         @Override
         public Iterator<IPhantomBlock> iterator() {
             return new Iterator<IPhantomBlock>() {
 
+                final PhantomBlock cursor = new PhantomBlock(PhantomChunk.this, 0, 0, 0);
                 boolean checkedHasNext;
+                boolean hasCurrent;
                 int sectionIndex = 0;
                 int blockIndex = 0;
-                IPhantomBlock current;
 
                 @Override
                 public boolean hasNext() {
 
+                    if (checkedHasNext)
+                        return hasCurrent;
+
                     checkedHasNext = true;
+                    hasCurrent = false;
 
-                    while (sectionIndex < 64) {
-                        IPhantomBlock[] section = blocks[sectionIndex];
+                    while (sectionIndex < 16) {
+                        PhantomSection section = sections[sectionIndex];
 
                         if (section != null) {
 
-                            while (blockIndex < 1024) {
+                            while ((blockIndex = section.next(blockIndex)) != -1) {
 
-                                current = section[blockIndex];
+                                int index = blockIndex;
                                 blockIndex++;
 
-                                if (current != null) {
+                                if (ignoresAir() && PhantomSection.isAir(section.get(index)))
+                                    continue;
 
-                                    if (ignoresAir() && current.getMaterial() == Material.AIR)
-                                        continue;
+                                cursor.moveTo(
+                                        (x << 4) + (index & 0xF),
+                                        (sectionIndex << 4) + (index >> 8),
+                                        (z << 4) + ((index >> 4) & 0xF));
 
-                                    return true;
-                                }
+                                hasCurrent = true;
+                                return true;
                             }
                         }
 
@@ -689,15 +1136,12 @@ public class PhantomBlocks implements IPhantomBlockContext {
                 @Override
                 public IPhantomBlock next() {
 
-                    if (!checkedHasNext)
-                        hasNext();
+                    if (!hasNext())
+                        throw new NoSuchElementException();
 
                     checkedHasNext = false;
 
-                    if (current == null)
-                        throw new NoSuchElementException();
-
-                    return current;
+                    return cursor;
                 }
 
                 @Override
@@ -708,27 +1152,152 @@ public class PhantomBlocks implements IPhantomBlockContext {
         }
     }
 
+    /**
+     * Implementation of {@link IPhantomEditSession}.
+     *
+     * <p>Staged blocks are kept in sparse sections per chunk until committed.</p>
+     */
+    private class EditSession implements IPhantomEditSession {
+
+        final LongHashMap<PhantomSection[]> staged = new LongHashMap<>(10);
+        int size;
+        boolean isCommitted;
+
+        @Override
+        public IPhantomBlockContext getContext() {
+            return _owner;
+        }
+
+        @Override
+        public void set(int x, int y, int z, Material material, int data) {
+            PreCon.notNull(material);
+            PreCon.isValid(y >= 0 && y < 256, "Y coordinates out of range: " + y);
+
+            if (isCommitted)
+                throw new IllegalStateException("Edit session has already been committed.");
+
+            long key = LongHashMap.key(x >> 4, z >> 4);
+
+            PhantomSection[] sections = staged.get(key);
+            if (sections == null) {
+                sections = new PhantomSection[16];
+                staged.put(key, sections);
+            }
+
+            PhantomSection section = sections[y >> 4];
+            if (section == null) {
+                section = new PhantomSection(0);
+                sections[y >> 4] = section;
+            }
+
+            if (section.set(PhantomSection.index(x, y, z), Utils.getCombinedId(material, (byte)data)))
+                size++;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return isCommitted;
+        }
+
+        @Override
+        public void commit() {
+
+            if (isCommitted)
+                throw new IllegalStateException("Edit session has already been committed.");
+
+            isCommitted = true;
+
+            if (size == 0)
+                return;
+
+            long[] keys = staged.keys();
+
+            for (long key : keys) {
+                PhantomChunk chunk = getOrCreateChunk(LongHashMap.keyX(key), LongHashMap.keyZ(key));
+                chunk.addBlocks(staged.get(key));
+            }
+
+            publish();
+            staged.clear();
+
+            List<Player> viewers = getWorldViewers();
+            if (viewers.isEmpty())
+                return;
+
+            ClientChunkTracker tracker = _manager.getChunkTracker();
+
+            // Updates go through the budgeted packet queue. Viewers that were up to
+            // date before the commit are sent a delta of the changed blocks.
+            for (long key : keys) {
+
+                PhantomChunk chunk = _chunks.get(key);
+
+                for (Player player : viewers) {
+
+                    if (tracker.isLoaded(player, _world, chunk.x, chunk.z))
+                        resendChunk(player, chunk);
+                }
+            }
+        }
+
+        /*
+         * Get the players in the world that can see the context.
+         */
+        List<Player> getWorldViewers() {
+
+            List<Player> players = _world.getPlayers();
+            List<Player> viewers = new ArrayList<>(players.size());
+
+            for (Player player : players) {
+                if (canSee(player))
+                    viewers.add(player);
+            }
+
+            return viewers;
+        }
+    }
+
     /**
      * Implementation of {@link IPhantomBlock}.
+     *
+     * <p>The block is a view into the packed storage of its chunk. Blocks that
+     * have not been set yet keep their material and data locally until
+     * {@link #set} is invoked.</p>
      */
     private class PhantomBlock implements IPhantomBlock {
 
-        final int chunkX, chunkZ, x, y, z, relativeX, relativeZ;
+        PhantomChunk chunk;
+        int x, y, z;
         Material material;
         byte data;
 
-        PhantomBlock(int x, int y, int z, Material material, int data) {
-            this.chunkX = x >> 4;
-            this.chunkZ = z >> 4;
+        // published blocks keep the material and data they were read with
+        boolean isPublished;
+
+        PhantomBlock(@Nullable PhantomChunk chunk, int x, int y, int z) {
+            this.chunk = chunk;
             this.x = x;
             this.y = y;
             this.z = z;
-            this.relativeX = getRelativeCoord(x, chunkX);
-            this.relativeZ = getRelativeCoord(z, chunkZ);
+        }
+
+        PhantomBlock(int x, int y, int z, Material material, int data) {
+            this(null, x, y, z);
             this.material = material;
             this.data = (byte)data;
         }
 
+        void moveTo(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
         @Override
         public IPhantomBlockContext getContext() {
             return PhantomBlocks.this;
@@ -736,7 +1305,9 @@ public class PhantomBlocks implements IPhantomBlockContext {
 
         @Override
         public IPhantomChunk getChunk() {
-            return _chunks.get(matcher(chunkX, chunkZ));
+            if (chunk == null)
+                chunk = _chunks.get(LongHashMap.key(x >> 4, z >> 4));
+            return chunk;
         }
 
         @Override
@@ -756,22 +1327,28 @@ public class PhantomBlocks implements IPhantomBlockContext {
 
         @Override
         public int getRelativeX() {
-            return relativeX;
+            return x & 0xF;
         }
 
         @Override
         public int getRelativeZ() {
-            return relativeZ;
+            return z & 0xF;
         }
 
         @Override
         public Material getMaterial() {
-            return material;
+            int id = combinedId();
+            return id == -1
+                    ? material
+                    : Utils.getMaterialFromCombinedId(id);
         }
 
         @Override
         public byte getData() {
-            return data;
+            int id = combinedId();
+            return id == -1
+                    ? data
+                    : Utils.getDataFromCombinedId(id);
         }
 
         @Override
@@ -780,8 +1357,7 @@ public class PhantomBlocks implements IPhantomBlockContext {
             this.material = material;
             this.data = (byte)data;
 
-            PhantomChunk chunk = chunk();
-            chunk.addBlock(this);
+            chunk().addBlock(x & 0xF, y, z & 0xF, Utils.getCombinedId(material, (byte)data));
 
             return true;
         }
@@ -831,12 +1407,19 @@ public class PhantomBlocks implements IPhantomBlockContext {
             PhantomBlocks.this.refreshView();
         }
 
+        /*
+         * Get the stored combined ID or -1 if the block is not set.
+         */
+        private int combinedId() {
+            if (isPublished || getChunk() == null)
+                return -1;
+
+            return chunk.getCombinedId(x & 0xF, y, z & 0xF);
+        }
+
         private PhantomChunk chunk() {
-            PhantomChunk chunk = _chunks.get(matcher(chunkX, chunkZ));
-            if (chunk == null) {
-                chunk = new PhantomChunk(chunkX, chunkZ);
-                _chunks.put(chunk.coords, chunk);
-            }
+            if (chunk == null)
+                chunk = getOrCreateChunk(x >> 4, z >> 4);
             return chunk;
         }
     }
@@ -0,0 +1,215 @@
+/*
+ * This file is part of PhantomPackets for Bukkit, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) JCThePants (www.jcwhatever.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jcwhatever.phantom.blocks;
+
+/**
+ * Packed storage for a 16x16x16 section of phantom blocks.
+ *
+ * <p>Blocks are stored as combined ID's in a {@code char} array indexed in the same
+ * order as chunk packet block data (Y, Z, X). A bitmap records which positions
+ * have been set.</p>
+ */
+final class PhantomSection {
+
+    static final int TOTAL_BLOCKS = 4096;
+
+    final char[] ids = new char[TOTAL_BLOCKS];
+    final long[] occupied = new long[TOTAL_BLOCKS >> 6];
+
+    // the publish epoch of the context the section was created in. Sections
+    // from an earlier epoch belong to a published snapshot and are read only.
+    final int epoch;
+
+    int totalBlocks;
+    int totalNonAirBlocks;
+
+    /**
+     * Constructor.
+     *
+     * @param epoch  The current epoch of the owning context.
+     */
+    PhantomSection(int epoch) {
+        this.epoch = epoch;
+    }
+
+    /**
+     * Copy constructor.
+     *
+     * @param section  The section to copy.
+     * @param epoch    The current epoch of the owning context.
+     */
+    PhantomSection(PhantomSection section, int epoch) {
+        this.epoch = epoch;
+
+        System.arraycopy(section.ids, 0, ids, 0, TOTAL_BLOCKS);
+        System.arraycopy(section.occupied, 0, occupied, 0, occupied.length);
+        totalBlocks = section.totalBlocks;
+        totalNonAirBlocks = section.totalNonAirBlocks;
+    }
+
+    /**
+     * Get the index of a block within a section.
+     *
+     * @param relativeX  The X coordinates relative to the chunk.
+     * @param y          The Y coordinates.
+     * @param relativeZ  The Z coordinates relative to the chunk.
+     */
+    static int index(int relativeX, int y, int relativeZ) {
+        return ((y & 0xF) << 8) | ((relativeZ & 0xF) << 4) | (relativeX & 0xF);
+    }
+
+    /**
+     * Determine if a combined ID is air.
+     *
+     * @param combinedId  The combined ID.
+     */
+    static boolean isAir(int combinedId) {
+        return (combinedId & 0xFFF) == 0;
+    }
+
+    /**
+     * Determine if a visible block is set in an array of chunk sections.
+     *
+     * @param sections    The chunk sections.
+     * @param ignoresAir  True to treat air blocks as not set.
+     * @param relativeX   The X coordinates relative to the chunk.
+     * @param y           The Y coordinates.
+     * @param relativeZ   The Z coordinates relative to the chunk.
+     */
+    static boolean hasBlock(PhantomSection[] sections, boolean ignoresAir,
+                            int relativeX, int y, int relativeZ) {
+
+        if (y < 0 || y > 255)
+            return false;
+
+        PhantomSection section = sections[y >> 4];
+        if (section == null)
+            return false;
+
+        int index = index(relativeX, y, relativeZ);
+
+        return section.has(index) &&
+                !(ignoresAir && isAir(section.get(index)));
+    }
+
+    /**
+     * Get the combined ID of a block in an array of chunk sections.
+     *
+     * @param sections   The chunk sections.
+     * @param relativeX  The X coordinates relative to the chunk.
+     * @param y          The Y coordinates.
+     * @param relativeZ  The Z coordinates relative to the chunk.
+     *
+     * @return  The combined ID or -1 if the block is not set.
+     */
+    static int getCombinedId(PhantomSection[] sections, int relativeX, int y, int relativeZ) {
+
+        if (y < 0 || y > 255)
+            return -1;
+
+        PhantomSection section = sections[y >> 4];
+        if (section == null)
+            return -1;
+
+        int index = index(relativeX, y, relativeZ);
+
+        return section.has(index) ? section.get(index) : -1;
+    }
+
+    /**
+     * Determine if a block has been set at the specified index.
+     *
+     * @param index  The block index.
+     */
+    boolean has(int index) {
+        return (occupied[index >> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Get the combined ID of the block at the specified index.
+     *
+     * @param index  The block index.
+     */
+    int get(int index) {
+        return ids[index];
+    }
+
+    /**
+     * Set the combined ID of the block at the specified index.
+     *
+     * @param index       The block index.
+     * @param combinedId  The combined ID.
+     *
+     * @return  True if the block was not previously set, otherwise false.
+     */
+    boolean set(int index, int combinedId) {
+
+        boolean isNew = !has(index);
+
+        if (isNew) {
+            occupied[index >> 6] |= 1L << index;
+            totalBlocks++;
+        }
+        else if (!isAir(ids[index])) {
+            totalNonAirBlocks--;
+        }
+
+        if (!isAir(combinedId))
+            totalNonAirBlocks++;
+
+        ids[index] = (char)combinedId;
+
+        return isNew;
+    }
+
+    /**
+     * Get the index of the next set block starting from and including
+     * the specified index.
+     *
+     * @param fromIndex  The index to start from.
+     *
+     * @return  The index or -1 if there are no more blocks.
+     */
+    int next(int fromIndex) {
+
+        if (fromIndex >= TOTAL_BLOCKS)
+            return -1;
+
+        int wordIndex = fromIndex >> 6;
+        long word = occupied[wordIndex] & (-1L << fromIndex);
+
+        while (true) {
+
+            if (word != 0)
+                return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+
+            wordIndex++;
+            if (wordIndex == occupied.length)
+                return -1;
+
+            word = occupied[wordIndex];
+        }
+    }
+}
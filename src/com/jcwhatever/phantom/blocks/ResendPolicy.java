@@ -0,0 +1,279 @@
+/*
+ * This file is part of PhantomPackets for Bukkit, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) JCThePants (www.jcwhatever.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jcwhatever.phantom.blocks;
+
+import com.jcwhatever.nucleus.storage.IDataNode;
+import com.jcwhatever.nucleus.utils.PreCon;
+import com.jcwhatever.phantom.data.ChunkData;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Chooses the packet used to resend the phantom blocks of a chunk to a player.
+ *
+ * <p>The encoded size of each option is estimated and the cheapest is used. A
+ * single phantom block is sent as a block change, a chunk with many phantom
+ * blocks may be cheaper to send as a map chunk that is translated by the packet
+ * listener on the way out.</p>
+ *
+ * <p>The thresholds are stored in the plugin data node under "resend". The number
+ * of times each packet type is chosen and the estimated bytes sent are recorded.</p>
+ */
+public class ResendPolicy {
+
+    // packet id, position, block state
+    static final int BLOCK_CHANGE_SIZE = 1 + 8 + 3;
+
+    // packet id, chunk coordinates, record count
+    static final int MULTI_BLOCK_CHANGE_HEADER_SIZE = 1 + 8 + 5;
+
+    // packed position and the average size of the block state var int
+    static final int MULTI_BLOCK_CHANGE_RECORD_SIZE = 2 + 2;
+
+    // packet id, chunk coordinates, continuous flag, section mask, data length
+    static final int MAP_CHUNK_HEADER_SIZE = 1 + 8 + 1 + 2 + 5;
+
+    /**
+     * The packet types a chunk can be resent with.
+     */
+    public enum ResendType {
+        BLOCK_CHANGE,
+        MULTI_BLOCK_CHANGE,
+        MAP_CHUNK
+    }
+
+    private final IDataNode _dataNode;
+    private final AtomicLongArray _counts = new AtomicLongArray(ResendType.values().length);
+    private final AtomicLongArray _bytes = new AtomicLongArray(ResendType.values().length);
+
+    private volatile int _mapChunkMinBlocks;
+    private volatile int _mapChunkWeight;
+
+    /**
+     * Constructor.
+     *
+     * @param dataNode  The data node to load and save the thresholds from.
+     */
+    public ResendPolicy(IDataNode dataNode) {
+        PreCon.notNull(dataNode);
+
+        _dataNode = dataNode;
+        _mapChunkMinBlocks = dataNode.getInteger("map-chunk-min-blocks", 1024);
+        _mapChunkWeight = dataNode.getInteger("map-chunk-weight", 100);
+    }
+
+    /**
+     * Get the minimum number of phantom blocks in a chunk before a map chunk
+     * is considered.
+     */
+    public int getMapChunkMinBlocks() {
+        return _mapChunkMinBlocks;
+    }
+
+    /**
+     * Set the minimum number of phantom blocks in a chunk before a map chunk
+     * is considered.
+     *
+     * @param minBlocks  The minimum number of blocks.
+     */
+    public void setMapChunkMinBlocks(int minBlocks) {
+        PreCon.positiveNumber(minBlocks);
+
+        _mapChunkMinBlocks = minBlocks;
+
+        _dataNode.set("map-chunk-min-blocks", minBlocks);
+        _dataNode.save();
+    }
+
+    /**
+     * Get the weight, as a percentage, applied to the estimated size of a map chunk
+     * when comparing it to a multi block change.
+     *
+     * <p>Values above 100 favor multi block changes.</p>
+     */
+    public int getMapChunkWeight() {
+        return _mapChunkWeight;
+    }
+
+    /**
+     * Set the weight, as a percentage, applied to the estimated size of a map chunk
+     * when comparing it to a multi block change.
+     *
+     * @param weight  The weight percentage.
+     */
+    public void setMapChunkWeight(int weight) {
+        PreCon.positiveNumber(weight);
+
+        _mapChunkWeight = weight;
+
+        _dataNode.set("map-chunk-weight", weight);
+        _dataNode.save();
+    }
+
+    /**
+     * Choose the packet type to resend a chunk with and record the decision.
+     *
+     * @param totalBlocks    The number of phantom blocks to send.
+     * @param chunkSections  The number of sections a map chunk of the chunk would contain.
+     *                       0 if a map chunk cannot be used. Use {@link #getMapChunkSections}
+     *                       so a map chunk is only chosen when it contains every section
+     *                       with phantom blocks.
+     * @param hasSkylight    True if the world sends skylight data.
+     */
+    public ResendType select(int totalBlocks, int chunkSections, boolean hasSkylight) {
+
+        ResendType type = ResendType.MULTI_BLOCK_CHANGE;
+
+        if (totalBlocks == 1) {
+            type = ResendType.BLOCK_CHANGE;
+        }
+        else if (chunkSections > 0 && totalBlocks >= _mapChunkMinBlocks) {
+
+            int mapSize = getMapChunkSize(chunkSections, hasSkylight);
+
+            if ((long)mapSize * _mapChunkWeight / 100 < getMultiBlockChangeSize(totalBlocks))
+                type = ResendType.MAP_CHUNK;
+        }
+
+        record(type, getEstimatedSize(type, totalBlocks, chunkSections, hasSkylight));
+        return type;
+    }
+
+    /**
+     * Record a multi block change sent without a decision, i.e. a delta of changed blocks.
+     *
+     * @param totalBlocks  The number of blocks in the packet.
+     *
+     * @return  The estimated size of the packet.
+     */
+    public int recordMultiBlockChange(int totalBlocks) {
+        int size = getMultiBlockChangeSize(totalBlocks);
+        record(ResendType.MULTI_BLOCK_CHANGE, size);
+        return size;
+    }
+
+    /**
+     * Get the number of times a packet type has been chosen.
+     *
+     * @param type  The packet type.
+     */
+    public long getCount(ResendType type) {
+        PreCon.notNull(type);
+
+        return _counts.get(type.ordinal());
+    }
+
+    /**
+     * Get the estimated number of bytes sent using a packet type.
+     *
+     * @param type  The packet type.
+     */
+    public long getEstimatedBytes(ResendType type) {
+        PreCon.notNull(type);
+
+        return _bytes.get(type.ordinal());
+    }
+
+    /**
+     * Reset the recorded counts and bytes.
+     */
+    public void resetMetrics() {
+        for (int i=0; i < _counts.length(); i++) {
+            _counts.set(i, 0);
+            _bytes.set(i, 0);
+        }
+    }
+
+    /**
+     * Get the estimated encoded size of a packet type.
+     *
+     * @param type           The packet type.
+     * @param totalBlocks    The number of phantom blocks to send.
+     * @param chunkSections  The number of sections in a map chunk.
+     * @param hasSkylight    True if the world sends skylight data.
+     */
+    public static int getEstimatedSize(ResendType type, int totalBlocks,
+                                       int chunkSections, boolean hasSkylight) {
+        PreCon.notNull(type);
+
+        switch (type) {
+            case BLOCK_CHANGE:
+                return BLOCK_CHANGE_SIZE;
+            case MULTI_BLOCK_CHANGE:
+                return getMultiBlockChangeSize(totalBlocks);
+            case MAP_CHUNK:
+                return getMapChunkSize(chunkSections, hasSkylight);
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    /**
+     * Get the estimated encoded size of a multi block change packet.
+     *
+     * @param totalBlocks  The number of blocks in the packet.
+     */
+    public static int getMultiBlockChangeSize(int totalBlocks) {
+        return MULTI_BLOCK_CHANGE_HEADER_SIZE + totalBlocks * MULTI_BLOCK_CHANGE_RECORD_SIZE;
+    }
+
+    /**
+     * Get the number of sections a map chunk resend of a world chunk would contain.
+     *
+     * <p>A map chunk is built from the sections the world chunk has allocated. Phantom
+     * blocks in sections the world chunk does not have are not included, so a map
+     * chunk cannot be used to send or restore them.</p>
+     *
+     * @param phantomSectionMask  The bit mask of the sections with phantom blocks.
+     * @param worldSectionMask    The bit mask of the sections allocated in the world chunk.
+     *
+     * @return  The number of sections or 0 if a map chunk cannot be used.
+     */
+    public static int getMapChunkSections(int phantomSectionMask, int worldSectionMask) {
+        return (phantomSectionMask & ~worldSectionMask) == 0
+                ? Integer.bitCount(worldSectionMask)
+                : 0;
+    }
+
+    /**
+     * Get the estimated encoded size of a non-continuous map chunk packet.
+     *
+     * @param chunkSections  The number of sections in the packet.
+     * @param hasSkylight    True if the packet includes skylight data.
+     */
+    public static int getMapChunkSize(int chunkSections, boolean hasSkylight) {
+
+        int sectionSize = ChunkData.BLOCK_DATA_SIZE + ChunkData.EMITTED_LIGHT_DATA_SIZE;
+        if (hasSkylight)
+            sectionSize += ChunkData.SKYLIGHT_DATA_SIZE;
+
+        return MAP_CHUNK_HEADER_SIZE + chunkSections * sectionSize;
+    }
+
+    private void record(ResendType type, int bytes) {
+        _counts.incrementAndGet(type.ordinal());
+        _bytes.addAndGet(type.ordinal(), bytes);
+    }
+}
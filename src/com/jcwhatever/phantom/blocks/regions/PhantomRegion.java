@@ -41,12 +41,15 @@ import com.jcwhatever.nucleus.utils.observer.future.IFuture;
 import com.jcwhatever.nucleus.utils.observer.future.IFuture.FutureStatus;
 import com.jcwhatever.nucleus.utils.performance.queued.QueueTask;
 import com.jcwhatever.phantom.IBlockContextManager;
+import com.jcwhatever.phantom.blocks.BlockContextManager;
 import com.jcwhatever.phantom.IPhantomBlock;
 import com.jcwhatever.phantom.IPhantomBlockContext;
 import com.jcwhatever.phantom.IPhantomChunk;
+import com.jcwhatever.phantom.IPhantomEditSession;
 import com.jcwhatever.phantom.Msg;
 import com.jcwhatever.phantom.PhantomPackets;
 import com.jcwhatever.phantom.blocks.PhantomBlocks;
+import com.jcwhatever.phantom.data.IChunkData;
 import com.jcwhatever.phantom.packets.IMultiBlockChangePacket;
 import org.bukkit.Location;
 import org.bukkit.Material;
@@ -55,6 +58,8 @@ import org.bukkit.entity.Player;
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Deque;
 import java.util.List;
 
@@ -66,11 +71,12 @@ public class PhantomRegion extends RestorableRegion implements IPhantomBlockCont
 
     public static final MetaKey<PhantomRegion> REGION_KEY = new MetaKey<>(PhantomRegion.class);
 
-    private final IBlockContextManager _manager;
+    private final BlockContextManager _manager;
     private final BasicFileFactory _fileFactory = new BasicFileFactory("disguise");
     private PhantomBlocks _blocks;
 
     private boolean _isLoading;
+    private int _priority;
 
     /**
      * Constructor.
@@ -78,7 +84,7 @@ public class PhantomRegion extends RestorableRegion implements IPhantomBlockCont
      * @param name      The name of the region.
      * @param dataNode  The regions data node.
      */
-    public PhantomRegion(IBlockContextManager manager, String name, IDataNode dataNode) {
+    public PhantomRegion(BlockContextManager manager, String name, IDataNode dataNode) {
         super(PhantomPackets.getPlugin(), name, dataNode);
 
         _manager = manager;
@@ -114,6 +120,11 @@ public class PhantomRegion extends RestorableRegion implements IPhantomBlockCont
         _blocks.translateMapChunkBulk(player, packet);
     }
 
+    @Override
+    public void translateChunkData(Player player, IChunkData chunkData) {
+        _blocks.translateChunkData(player, chunkData);
+    }
+
     @Override
     public IPhantomBlock getBlock(int x, int y, int z) {
         return _blocks.getBlock(x, y, z);
@@ -125,12 +136,25 @@ public class PhantomRegion extends RestorableRegion implements IPhantomBlockCont
         return _blocks.getPhantomBlock(x, y, z);
     }
 
+    @Nullable
+    @Override
+    public IPhantomBlock getPublishedBlock(int x, int y, int z) {
+        return _blocks.getPublishedBlock(x, y, z);
+    }
+
     @Nullable
     @Override
     public IPhantomChunk getPhantomChunk(int x, int z) {
         return _blocks.getPhantomChunk(x, z);
     }
 
+    @Override
+    public Collection<IPhantomChunk> getPhantomChunks() {
+        return _blocks != null
+                ? _blocks.getPhantomChunks()
+                : new ArrayList<IPhantomChunk>(0);
+    }
+
     /**
      * Determine if the region is loading.
      */
@@ -138,6 +162,30 @@ public class PhantomRegion extends RestorableRegion implements IPhantomBlockCont
         return _isLoading;
     }
 
+    @Override
+    public int getPriority() {
+        return _priority;
+    }
+
+    @Override
+    public void setPriority(int priority) {
+
+        if (_priority == priority)
+            return;
+
+        _priority = priority;
+        _manager.reindex(this);
+
+        if (_blocks != null)
+            _blocks.refreshChunks();
+
+        IDataNode dataNode = getDataNode();
+        if (dataNode != null) {
+            dataNode.set("priority", priority);
+            dataNode.save();
+        }
+    }
+
     @Override
     public boolean ignoresAir() {
         return _blocks.ignoresAir();
@@ -155,6 +203,11 @@ public class PhantomRegion extends RestorableRegion implements IPhantomBlockCont
         }
     }
 
+    @Override
+    public IPhantomEditSession beginEdit() {
+        return _blocks.beginEdit();
+    }
+
     @Override
     public ViewPolicy getViewPolicy() {
         return _blocks.getViewPolicy();
@@ -260,11 +313,14 @@ public class PhantomRegion extends RestorableRegion implements IPhantomBlockCont
             return;
 
         _isLoading = true;
-        _blocks = new PhantomBlocks(_manager, getWorld(), getName());
 
         IDataNode dataNode = getDataNode();
         assert dataNode != null;
 
+        _priority = dataNode.getInteger("priority", 0);
+        _blocks = new PhantomBlocks(_manager, this, getWorld(), getName());
+        _manager.reindex(this);
+
         _blocks.setIgnoresAir(dataNode.getBoolean("ignore-air"));
 
         getFileFormat().getLoader(this, getFileFactory()).load(
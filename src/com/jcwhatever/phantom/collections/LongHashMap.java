@@ -0,0 +1,337 @@
+/*
+ * This file is part of PhantomPackets for Bukkit, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) JCThePants (www.jcwhatever.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jcwhatever.phantom.collections;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Open addressing hash map that uses primitive long keys.
+ *
+ * <p>Intended to be modified by a single thread. Other threads can read from the
+ * map without locking; a concurrent read never returns a value for the wrong key
+ * but may miss an entry that is being added at the same time.</p>
+ *
+ * @param <V>  The value type.
+ */
+public class LongHashMap<V> {
+
+    private static final Entry REMOVED = new Entry(0, null);
+
+    private volatile Entry[] _table;
+    private int _size;
+    private int _used;
+
+    /**
+     * Constructor.
+     */
+    public LongHashMap() {
+        this(16);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param capacity  The initial capacity.
+     */
+    public LongHashMap(int capacity) {
+        _table = new Entry[tableSize(capacity)];
+    }
+
+    /**
+     * Get a key from chunk or block X and Z coordinates.
+     *
+     * @param x  The X coordinates.
+     * @param z  The Z coordinates.
+     */
+    public static long key(int x, int z) {
+        return ((long)x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Get the X coordinates from a key created by {@link #key}.
+     *
+     * @param key  The key.
+     */
+    public static int keyX(long key) {
+        return (int)(key >> 32);
+    }
+
+    /**
+     * Get the Z coordinates from a key created by {@link #key}.
+     *
+     * @param key  The key.
+     */
+    public static int keyZ(long key) {
+        return (int)key;
+    }
+
+    /**
+     * Get the number of entries in the map.
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Determine if the map is empty.
+     */
+    public boolean isEmpty() {
+        return _size == 0;
+    }
+
+    /**
+     * Get the value mapped to a key.
+     *
+     * @param key  The key.
+     *
+     * @return  The value or null if not found.
+     */
+    @Nullable
+    public V get(long key) {
+
+        Entry[] table = _table;
+        int mask = table.length - 1;
+        int index = hash(key) & mask;
+
+        while (true) {
+            Entry entry = table[index];
+            if (entry == null)
+                return null;
+
+            if (entry != REMOVED && entry.key == key) {
+                @SuppressWarnings("unchecked")
+                V value = (V)entry.value;
+                return value;
+            }
+
+            index = (index + 1) & mask;
+        }
+    }
+
+    /**
+     * Determine if the map contains a key.
+     *
+     * @param key  The key.
+     */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Map a value to a key.
+     *
+     * @param key    The key.
+     * @param value  The value. Null values are not allowed.
+     *
+     * @return  The previous value or null if there was none.
+     */
+    @Nullable
+    public V put(long key, V value) {
+        if (value == null)
+            throw new NullPointerException("Null values are not allowed.");
+
+        Entry[] table = _table;
+        int mask = table.length - 1;
+        int index = hash(key) & mask;
+        int removedIndex = -1;
+
+        while (true) {
+            Entry entry = table[index];
+
+            if (entry == null)
+                break;
+
+            if (entry == REMOVED) {
+                if (removedIndex == -1)
+                    removedIndex = index;
+            }
+            else if (entry.key == key) {
+                table[index] = new Entry(key, value);
+
+                @SuppressWarnings("unchecked")
+                V previous = (V)entry.value;
+                return previous;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        if (removedIndex != -1) {
+            table[removedIndex] = new Entry(key, value);
+        }
+        else {
+            table[index] = new Entry(key, value);
+            _used++;
+        }
+
+        _size++;
+
+        if (_used * 2 > table.length)
+            rehash(_size * 2 > table.length / 2 ? table.length * 2 : table.length);
+
+        return null;
+    }
+
+    /**
+     * Remove a key.
+     *
+     * @param key  The key.
+     *
+     * @return  The removed value or null if the key was not found.
+     */
+    @Nullable
+    public V remove(long key) {
+
+        Entry[] table = _table;
+        int mask = table.length - 1;
+        int index = hash(key) & mask;
+
+        while (true) {
+            Entry entry = table[index];
+            if (entry == null)
+                return null;
+
+            if (entry != REMOVED && entry.key == key) {
+                table[index] = REMOVED;
+                _size--;
+
+                @SuppressWarnings("unchecked")
+                V value = (V)entry.value;
+                return value;
+            }
+
+            index = (index + 1) & mask;
+        }
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public void clear() {
+        _table = new Entry[_table.length];
+        _size = 0;
+        _used = 0;
+    }
+
+    /**
+     * Get a new array of the keys in the map.
+     */
+    public long[] keys() {
+
+        Entry[] table = _table;
+        long[] result = new long[_size];
+        int count = 0;
+
+        for (Entry entry : table) {
+            if (entry != null && entry != REMOVED && count < result.length)
+                result[count++] = entry.key;
+        }
+
+        return result;
+    }
+
+    /**
+     * Get a new list of the values in the map.
+     */
+    public List<V> values() {
+        return values(new ArrayList<V>(_size));
+    }
+
+    /**
+     * Add the values in the map to an output list.
+     *
+     * @param output  The output list.
+     *
+     * @return  The output list.
+     */
+    public <T extends List<V>> T values(T output) {
+
+        Entry[] table = _table;
+
+        for (Entry entry : table) {
+            if (entry != null && entry != REMOVED) {
+                @SuppressWarnings("unchecked")
+                V value = (V)entry.value;
+                output.add(value);
+            }
+        }
+
+        return output;
+    }
+
+    /*
+     * Copy entries into a new table and publish it.
+     */
+    private void rehash(int length) {
+
+        Entry[] table = _table;
+        Entry[] newTable = new Entry[length];
+        int mask = length - 1;
+
+        for (Entry entry : table) {
+            if (entry == null || entry == REMOVED)
+                continue;
+
+            int index = hash(entry.key) & mask;
+            while (newTable[index] != null) {
+                index = (index + 1) & mask;
+            }
+            newTable[index] = entry;
+        }
+
+        _used = _size;
+        _table = newTable;
+    }
+
+    private static int tableSize(int capacity) {
+        int size = 16;
+        while (size < capacity * 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    private static int hash(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int)(hash ^ (hash >>> 32));
+    }
+
+    /*
+     * Immutable table entry. Entries are replaced instead of modified so that
+     * a reader always sees a key with its matching value.
+     */
+    private static final class Entry {
+
+        final long key;
+        final Object value;
+
+        Entry(long key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
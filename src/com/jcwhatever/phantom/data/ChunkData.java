@@ -32,6 +32,8 @@ import org.bukkit.Material;
 import org.bukkit.World;
 import org.bukkit.World.Environment;
 
+import java.util.Arrays;
+
 /*
  * 
  */
@@ -51,6 +53,8 @@ public class ChunkData implements IChunkData {
     private byte[] _data;
 
     private int _continuous;
+    private boolean _isBulk;
+    private boolean _isDataReplaced;
     private int _startIndex;
     private int _sectionDataCount;
 
@@ -107,6 +111,16 @@ public class ChunkData implements IChunkData {
         return _continuous != 0;
     }
 
+    @Override
+    public boolean isUnload() {
+        return _continuous != 0 && _mask == 0 && !_isBulk;
+    }
+
+    @Override
+    public boolean isDataReplaced() {
+        return _isDataReplaced;
+    }
+
     @Override
     public int getStartIndex() {
         return _startIndex;
@@ -161,22 +175,18 @@ public class ChunkData implements IChunkData {
     @Override
     public boolean hasBlock(int relativeX, int y, int relativeZ) {
 
-        int sectionChunkIndex = (int)Math.floor((double)y / 16);
-
-        return hasChunkSection(sectionChunkIndex);
+        return y >= 0 && y < 256 && hasChunkSection(y >> 4);
     }
 
     @Override
     public void setBlock(int relativeX, int y, int relativeZ, Material material, byte meta) {
 
-        int sectionChunkIndex = (int)Math.floor((double)y / 16);
-
-        if (!hasChunkSection(sectionChunkIndex))
+        if (!hasBlock(relativeX, y, relativeZ))
             return;
 
-        int sectionDataIndex = _sectionDataIndexes[sectionChunkIndex];
+        int sectionDataIndex = _sectionDataIndexes[y >> 4];
 
-        y = y % 16;
+        y = y & 0xF;
 
         int index = 512 * y + 32 * relativeZ + 2 * relativeX;
 
@@ -188,6 +198,118 @@ public class ChunkData implements IChunkData {
         _data[index + 1] = (byte) (id >> 8 & 0xFF);
     }
 
+    @Override
+    public void setSectionBlocks(int sectionChunkIndex, byte[] blocks, long[] mask) {
+
+        if (!hasChunkSection(sectionChunkIndex))
+            return;
+
+        byte[] data = _data;
+        int start = getBlockStart(_sectionDataIndexes[sectionChunkIndex]);
+
+        if (data == null || start + BLOCK_DATA_SIZE > data.length)
+            return;
+
+        for (int word = 0; word < mask.length; word++) {
+
+            long bits = mask[word];
+            if (bits == 0)
+                continue;
+
+            // byte index of the first block in the word
+            int offset = word << 7;
+
+            if (bits == -1L) {
+                System.arraycopy(blocks, offset, data, start + offset, 128);
+                continue;
+            }
+
+            while (bits != 0) {
+                int index = offset + (Long.numberOfTrailingZeros(bits) << 1);
+                bits &= bits - 1;
+
+                data[start + index] = blocks[index];
+                data[start + index + 1] = blocks[index + 1];
+            }
+        }
+    }
+
+    @Override
+    public boolean addSections(int sectionMask) {
+
+        int mask = (_mask | sectionMask) & 0xFFFF;
+        if (mask == _mask || _data == null)
+            return false;
+
+        if (getStartIndex() + getChunkSize() > _data.length)
+            return false;
+
+        boolean hasSkylight = hasSkylight();
+        int sectionDataCount = Integer.bitCount(mask);
+        int blockSize = sectionDataCount * BLOCK_DATA_SIZE;
+        int blockLightSize = sectionDataCount * EMITTED_LIGHT_DATA_SIZE;
+        int skylightSize = hasSkylight ? sectionDataCount * SKYLIGHT_DATA_SIZE : 0;
+
+        byte[] data = new byte[blockSize + blockLightSize + skylightSize + _continuous];
+
+        int sectionDataIndex = 0;
+
+        for (int sectionChunkIndex = 0; sectionChunkIndex < 16; sectionChunkIndex++) {
+
+            if ((mask & (1 << sectionChunkIndex)) == 0)
+                continue;
+
+            int blockStart = sectionDataIndex * BLOCK_DATA_SIZE;
+            int blockLightStart = blockSize + (sectionDataIndex * EMITTED_LIGHT_DATA_SIZE);
+            int skylightStart = blockSize + blockLightSize + (sectionDataIndex * SKYLIGHT_DATA_SIZE);
+
+            int current = _sectionDataIndexes[sectionChunkIndex];
+
+            if (current != -1) {
+                System.arraycopy(_data, getBlockStart(current), data, blockStart, BLOCK_DATA_SIZE);
+                System.arraycopy(_data, getBlockLightStart(current), data, blockLightStart, EMITTED_LIGHT_DATA_SIZE);
+
+                if (hasSkylight) {
+                    System.arraycopy(_data, getSkylightStart(current), data, skylightStart, SKYLIGHT_DATA_SIZE);
+                }
+            }
+            else if (hasSkylight) {
+                // sections missing from continuous data are empty and open to the sky
+                Arrays.fill(data, skylightStart, skylightStart + SKYLIGHT_DATA_SIZE, (byte)0xFF);
+            }
+
+            sectionDataIndex++;
+        }
+
+        // biome data follows the sections
+        if (_continuous != 0) {
+            System.arraycopy(_data, getStartIndex() + getChunkSize() - _continuous,
+                    data, data.length - _continuous, _continuous);
+        }
+
+        _startIndex = 0;
+        _isDataReplaced = true;
+
+        init(_chunkX, _chunkZ, mask, data, _continuous != 0, _isBulk);
+
+        return true;
+    }
+
+    @Override
+    public void detachData() {
+
+        if (_isDataReplaced || _data == null)
+            return;
+
+        int size = Math.min(getChunkSize(), _data.length - getStartIndex());
+        byte[] data = Arrays.copyOfRange(_data, getStartIndex(), getStartIndex() + size);
+
+        _startIndex = 0;
+        _isDataReplaced = true;
+
+        init(_chunkX, _chunkZ, _mask, data, _continuous != 0, _isBulk);
+    }
+
     @Override
     public int hashCode() {
         return _world.hashCode() ^ getX() ^ getZ();
@@ -210,13 +332,15 @@ public class ChunkData implements IChunkData {
         _startIndex = index;
     }
 
-    public void init(int x, int z, int mask, byte[] data, boolean isContinuous) {
+    public void init(int x, int z, int mask, byte[] data, boolean isContinuous, boolean isBulk) {
 
         _chunkX = x;
         _chunkZ = z;
         _mask = mask;
         _data = data;
+        _isBulk = isBulk;
         _skylight = _world.getEnvironment() == Environment.NORMAL ? 1 : 0;
+        _sectionDataCount = 0;
 
         _continuous = isContinuous
                 ? BIOME_DATA_SIZE
@@ -242,14 +366,15 @@ public class ChunkData implements IChunkData {
 
         }
 
-        _chunkSize = (_sectionDataCount * BLOCK_DATA_SIZE * EMITTED_LIGHT_DATA_SIZE *
-                (hasSkylight() ? SKYLIGHT_DATA_SIZE : 1)) + _continuous;
+        _chunkSize = (_sectionDataCount * (BLOCK_DATA_SIZE + EMITTED_LIGHT_DATA_SIZE +
+                (hasSkylight() ? SKYLIGHT_DATA_SIZE : 0))) + _continuous;
 
         _blockSize = BLOCK_DATA_SIZE * _sectionDataCount;
 
         _blockLightStart = _startIndex + _blockSize;
 
-        _skylightStart = hasSkylight() ? -1 : _startIndex + _blockSize +
-                        (_sectionDataCount * EMITTED_LIGHT_DATA_SIZE);
+        _skylightStart = hasSkylight()
+                ? _startIndex + _blockSize + (_sectionDataCount * EMITTED_LIGHT_DATA_SIZE)
+                : -1;
     }
 }
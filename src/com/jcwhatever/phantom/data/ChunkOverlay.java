@@ -0,0 +1,215 @@
+/*
+ * This file is part of PhantomPackets for Bukkit, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) JCThePants (www.jcwhatever.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jcwhatever.phantom.data;
+
+import javax.annotation.Nullable;
+
+/**
+ * Pre-encoded block data that is copied over chunk data.
+ *
+ * <p>Each of the 16 chunk sections can have a block array containing little-endian
+ * legacy ID's in the same layout as chunk packet block data and a write mask with
+ * one bit per block that determines which blocks are copied.</p>
+ */
+public class ChunkOverlay {
+
+    /**
+     * The number of blocks in a chunk section.
+     */
+    public static final int SECTION_BLOCKS = 4096;
+
+    /**
+     * The number of longs in a section write mask.
+     */
+    public static final int MASK_SIZE = SECTION_BLOCKS >> 6;
+
+    private final byte[][] _blocks = new byte[16][];
+    private final long[][] _masks = new long[16][];
+    private int _sectionMask;
+
+    /**
+     * Get a bit mask of the chunk sections that have overlay data.
+     */
+    public int getSectionMask() {
+        return _sectionMask;
+    }
+
+    /**
+     * Determine if the overlay has data for a chunk section.
+     *
+     * @param sectionChunkIndex  The index position of the chunk section within the chunk.
+     */
+    public boolean hasSection(int sectionChunkIndex) {
+        return (_sectionMask & (1 << sectionChunkIndex)) != 0;
+    }
+
+    /**
+     * Get the encoded block array of a chunk section.
+     *
+     * @param sectionChunkIndex  The index position of the chunk section within the chunk.
+     *
+     * @return  The block array or null if the section has no data.
+     */
+    @Nullable
+    public byte[] getBlocks(int sectionChunkIndex) {
+        return _blocks[sectionChunkIndex];
+    }
+
+    /**
+     * Get the write mask of a chunk section.
+     *
+     * @param sectionChunkIndex  The index position of the chunk section within the chunk.
+     *
+     * @return  The mask or null if the section has no data.
+     */
+    @Nullable
+    public long[] getMask(int sectionChunkIndex) {
+        return _masks[sectionChunkIndex];
+    }
+
+    /**
+     * Set the data of a chunk section.
+     *
+     * @param sectionChunkIndex  The index position of the chunk section within the chunk.
+     * @param blocks             The encoded block array or null to remove the section.
+     * @param mask               The write mask or null to remove the section.
+     */
+    public void setSection(int sectionChunkIndex, @Nullable byte[] blocks, @Nullable long[] mask) {
+
+        if (blocks == null || mask == null) {
+            _blocks[sectionChunkIndex] = null;
+            _masks[sectionChunkIndex] = null;
+            _sectionMask &= ~(1 << sectionChunkIndex);
+        }
+        else {
+            if (blocks.length != SECTION_BLOCKS * ChunkData.BLOCK_SIZE)
+                throw new IllegalArgumentException("Invalid block array size.");
+
+            if (mask.length != MASK_SIZE)
+                throw new IllegalArgumentException("Invalid mask size.");
+
+            _blocks[sectionChunkIndex] = blocks;
+            _masks[sectionChunkIndex] = mask;
+            _sectionMask |= 1 << sectionChunkIndex;
+        }
+    }
+
+    /**
+     * Merge another overlay into the overlay.
+     *
+     * <p>Blocks written by the other overlay replace blocks in this overlay. The
+     * arrays of the other overlay are not modified or shared.</p>
+     *
+     * @param other  The overlay to merge.
+     */
+    public void merge(ChunkOverlay other) {
+
+        int sectionMask = other._sectionMask;
+
+        while (sectionMask != 0) {
+            int sectionChunkIndex = Integer.numberOfTrailingZeros(sectionMask);
+            sectionMask &= sectionMask - 1;
+
+            byte[] otherBlocks = other._blocks[sectionChunkIndex];
+            long[] otherMask = other._masks[sectionChunkIndex];
+
+            byte[] blocks = _blocks[sectionChunkIndex];
+            long[] mask = _masks[sectionChunkIndex];
+
+            if (blocks == null || mask == null) {
+                setSection(sectionChunkIndex, otherBlocks.clone(), otherMask.clone());
+                continue;
+            }
+
+            for (int word = 0; word < MASK_SIZE; word++) {
+
+                long bits = otherMask[word];
+                if (bits == 0)
+                    continue;
+
+                mask[word] |= bits;
+
+                // byte index of the first block in the word
+                int offset = word << 7;
+
+                if (bits == -1L) {
+                    System.arraycopy(otherBlocks, offset, blocks, offset, 128);
+                    continue;
+                }
+
+                while (bits != 0) {
+                    int index = offset + (Long.numberOfTrailingZeros(bits) << 1);
+                    bits &= bits - 1;
+
+                    blocks[index] = otherBlocks[index];
+                    blocks[index + 1] = otherBlocks[index + 1];
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy the overlay into chunk data.
+     *
+     * <p>Sections missing from continuous chunk data are empty and are added to the
+     * chunk data so the overlay blocks arrive with the chunk. Sections missing from
+     * non-continuous chunk data are not part of the update and are not copied.</p>
+     *
+     * @param chunkData  The chunk data.
+     */
+    public void applyTo(IChunkData chunkData) {
+
+        if (chunkData.isUnload())
+            return;
+
+        if (chunkData.isContinuous()) {
+            int missing = _sectionMask & ~chunkData.getSectionMask();
+            if (missing != 0)
+                chunkData.addSections(missing);
+        }
+
+        int mask = _sectionMask & chunkData.getSectionMask();
+
+        while (mask != 0) {
+            int sectionChunkIndex = Integer.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+
+            chunkData.setSectionBlocks(sectionChunkIndex,
+                    _blocks[sectionChunkIndex], _masks[sectionChunkIndex]);
+        }
+    }
+
+    /**
+     * Encode a legacy ID into a block array.
+     *
+     * @param blocks    The block array.
+     * @param index     The block index within the section.
+     * @param legacyId  The legacy ID.
+     */
+    public static void encode(byte[] blocks, int index, int legacyId) {
+        blocks[index << 1] = (byte)(legacyId & 0xFF);
+        blocks[(index << 1) + 1] = (byte)(legacyId >> 8 & 0xFF);
+    }
+}
@@ -49,6 +49,20 @@ public interface IChunkData extends IChunkCoords {
      */
     boolean isContinuous();
 
+    /**
+     * Determine if the chunk data unloads the chunk on the client.
+     *
+     * <p>A continuous map chunk packet with no sections unloads the chunk.
+     * Chunks in a map chunk bulk packet are never unloaded.</p>
+     */
+    boolean isUnload();
+
+    /**
+     * Determine if the data array was replaced and must be written back
+     * to the packet.
+     */
+    boolean isDataReplaced();
+
     /**
      * Get the index position where the chunk data begins.
      */
@@ -139,4 +153,37 @@ public interface IChunkData extends IChunkCoords {
      * @param meta       The meta data to set.
      */
     void setBlock(int relativeX, int y, int relativeZ, Material material, byte meta);
+
+    /**
+     * Copy pre-encoded block data into a chunk section.
+     *
+     * <p>Does nothing if the chunk section is not included in the data.</p>
+     *
+     * @param sectionChunkIndex  The index position of the chunk section within the chunk.
+     * @param blocks             The block data of the section. Little-endian legacy ID's in
+     *                           the same layout as the chunk data.
+     * @param mask               Bit mask of the blocks to copy. One bit per block.
+     */
+    void setSectionBlocks(int sectionChunkIndex, byte[] blocks, long[] mask);
+
+    /**
+     * Add empty chunk sections to the data.
+     *
+     * <p>The data array is replaced with a new array that contains the existing
+     * and the added sections. Added sections contain air, no block light and
+     * full skylight.</p>
+     *
+     * @param sectionMask  The bit mask of the sections to add.
+     *
+     * @return  True if sections were added.
+     */
+    boolean addSections(int sectionMask);
+
+    /**
+     * Replace the data array with a copy of the chunk data so the data can
+     * be modified without changing the source array.
+     *
+     * <p>Does nothing if the data array was already replaced.</p>
+     */
+    void detachData();
 }
@@ -0,0 +1,309 @@
+/*
+ * This file is part of PhantomPackets for Bukkit, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) JCThePants (www.jcwhatever.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jcwhatever.phantom.light;
+
+import com.jcwhatever.nucleus.managed.scheduler.Scheduler;
+import com.jcwhatever.nucleus.mixins.IDisposable;
+import com.jcwhatever.nucleus.utils.PreCon;
+import com.jcwhatever.phantom.Msg;
+import com.jcwhatever.phantom.PhantomPackets;
+import com.jcwhatever.phantom.collections.LongHashMap;
+import com.jcwhatever.phantom.nms.INmsHandler;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Propagates the block light of light sources on a worker thread.
+ *
+ * <p>The blocks around a light source are copied into a {@link LightSnapshot} on
+ * the main thread. The light is spread through the snapshot on the worker thread,
+ * decreasing by the opacity of each block it enters, and the resulting levels are
+ * handed back to the main thread as a {@link LightPatch}.</p>
+ */
+public class LightEngine implements IDisposable {
+
+    private static final int[] OFFSET_X = { 1, -1, 0, 0, 0, 0 };
+    private static final int[] OFFSET_Y = { 0, 0, 1, -1, 0, 0 };
+    private static final int[] OFFSET_Z = { 0, 0, 0, 0, 1, -1 };
+
+    // light opacity by combined block ID, -1 if not looked up yet
+    private final byte[] _opacity = new byte[0x10000];
+
+    private ExecutorService _executor;
+    private volatile boolean _isDisposed;
+
+    /**
+     * Constructor.
+     */
+    public LightEngine() {
+        Arrays.fill(_opacity, (byte)-1);
+    }
+
+    /**
+     * Propagate light on the worker thread.
+     *
+     * <p>The callback is invoked on the main thread. The callback is not invoked
+     * if the engine is disposed before the light is propagated.</p>
+     *
+     * @param snapshot  The snapshot of the blocks around the light source.
+     * @param callback  The callback to receive the result.
+     */
+    public void propagate(final LightSnapshot snapshot, final ILightCallback callback) {
+        PreCon.notNull(snapshot);
+        PreCon.notNull(callback);
+
+        ExecutorService executor = getExecutor();
+        if (executor == null)
+            return;
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+
+                    final LightPatch patch = compute(snapshot);
+
+                    if (_isDisposed)
+                        return;
+
+                    Scheduler.runTaskLater(PhantomPackets.getPlugin(), 1, new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!_isDisposed)
+                                callback.onPropagated(patch);
+                        }
+                    });
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            Msg.debug("Light propagation rejected, the light engine is disposed.");
+        }
+    }
+
+    /**
+     * Propagate light on the calling thread.
+     *
+     * @param snapshot  The snapshot of the blocks around the light source.
+     */
+    public LightPatch compute(LightSnapshot snapshot) {
+        PreCon.notNull(snapshot);
+
+        int intensity = snapshot.getIntensity();
+        int radius = Math.max(0, intensity - 1);
+
+        int sourceX = snapshot.getX();
+        int sourceY = snapshot.getY();
+        int sourceZ = snapshot.getZ();
+
+        int minX = sourceX - radius;
+        int minZ = sourceZ - radius;
+        int minY = Math.max(0, sourceY - radius);
+        int maxY = Math.min(255, sourceY + radius);
+
+        int size = radius * 2 + 1;
+        int sizeY = maxY - minY + 1;
+
+        LongHashMap<byte[][]> chunks = new LongHashMap<>(16);
+
+        if (intensity == 0 || sourceY < 0 || sourceY > 255)
+            return new LightPatch(snapshot, chunks);
+
+        byte[] levels = new byte[size * size * sizeY];
+
+        // cells waiting to spread light, bucketed by light level
+        int[][] buckets = new int[16][];
+        int[] bucketSizes = new int[16];
+
+        int sourceIndex = ((sourceY - minY) * size + radius) * size + radius;
+        levels[sourceIndex] = (byte)intensity;
+        push(buckets, bucketSizes, intensity, sourceIndex);
+
+        // brightest cells first, a cell is final when its bucket is reached
+        for (int level = intensity; level > 1; level--) {
+
+            for (int i = 0; i < bucketSizes[level]; i++) {
+
+                int index = buckets[level][i];
+                if (levels[index] != level)
+                    continue;
+
+                int cellX = index % size;
+                int cellZ = (index / size) % size;
+                int cellY = index / (size * size);
+
+                for (int face = 0; face < 6; face++) {
+
+                    int x = cellX + OFFSET_X[face];
+                    int y = cellY + OFFSET_Y[face];
+                    int z = cellZ + OFFSET_Z[face];
+
+                    if (x < 0 || x >= size || y < 0 || y >= sizeY || z < 0 || z >= size)
+                        continue;
+
+                    int opacity = getOpacity(snapshot.getBlockId(minX + x, minY + y, minZ + z));
+                    int newLevel = level - Math.max(1, opacity);
+
+                    int neighbor = (y * size + z) * size + x;
+                    if (newLevel <= levels[neighbor])
+                        continue;
+
+                    levels[neighbor] = (byte)newLevel;
+                    push(buckets, bucketSizes, newLevel, neighbor);
+                }
+            }
+        }
+
+        // copy levels into chunk section nibble arrays
+        for (int y = 0; y < sizeY; y++) {
+            for (int z = 0; z < size; z++) {
+                for (int x = 0; x < size; x++) {
+
+                    int level = levels[(y * size + z) * size + x];
+                    if (level == 0)
+                        continue;
+
+                    int blockX = minX + x;
+                    int blockY = minY + y;
+                    int blockZ = minZ + z;
+
+                    long key = LongHashMap.key(blockX >> 4, blockZ >> 4);
+
+                    byte[][] sections = chunks.get(key);
+                    if (sections == null) {
+                        sections = new byte[16][];
+                        chunks.put(key, sections);
+                    }
+
+                    byte[] section = sections[blockY >> 4];
+                    if (section == null) {
+                        section = new byte[2048];
+                        sections[blockY >> 4] = section;
+                    }
+
+                    // nibble array, 2 blocks per byte, even indexes in the low nibble
+                    int nibbleIndex = ((blockY & 0xF) << 8) | ((blockZ & 0xF) << 4) | (blockX & 0xF);
+
+                    section[nibbleIndex >> 1] |= (nibbleIndex & 1) == 0
+                            ? level
+                            : level << 4;
+                }
+            }
+        }
+
+        return new LightPatch(snapshot, chunks);
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return _isDisposed;
+    }
+
+    @Override
+    public synchronized void dispose() {
+        _isDisposed = true;
+
+        if (_executor != null) {
+            _executor.shutdownNow();
+            _executor = null;
+        }
+    }
+
+    /*
+     * Get the light opacity of a block, looking it up once per block ID.
+     */
+    private int getOpacity(int combinedId) {
+
+        int opacity = _opacity[combinedId & 0xFFFF];
+        if (opacity == -1) {
+            INmsHandler nms = PhantomPackets.getNms();
+            opacity = Math.max(0, Math.min(15, nms.getLightOpacity(combinedId)));
+
+            // byte writes are atomic, concurrent lookups store the same value
+            _opacity[combinedId & 0xFFFF] = (byte)opacity;
+        }
+        return opacity;
+    }
+
+    /*
+     * Add a cell index to a light level bucket.
+     */
+    private static void push(int[][] buckets, int[] bucketSizes, int level, int index) {
+
+        int[] bucket = buckets[level];
+        int bucketSize = bucketSizes[level];
+
+        if (bucket == null) {
+            bucket = new int[64];
+            buckets[level] = bucket;
+        }
+        else if (bucketSize == bucket.length) {
+            bucket = Arrays.copyOf(bucket, bucketSize * 2);
+            buckets[level] = bucket;
+        }
+
+        bucket[bucketSize] = index;
+        bucketSizes[level] = bucketSize + 1;
+    }
+
+    /*
+     * Get the worker thread executor, creating it if it does not exist.
+     */
+    private synchronized ExecutorService getExecutor() {
+
+        if (_isDisposed)
+            return null;
+
+        if (_executor == null) {
+            _executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PhantomPackets Light Engine");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return _executor;
+    }
+
+    /**
+     * Receives the result of light propagation.
+     */
+    public interface ILightCallback {
+
+        /**
+         * Invoked on the main thread after the light is propagated.
+         *
+         * @param patch  The computed light levels.
+         */
+        void onPropagated(LightPatch patch);
+    }
+}
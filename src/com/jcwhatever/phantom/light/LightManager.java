@@ -24,19 +24,147 @@
 
 package com.jcwhatever.phantom.light;
 
+import com.comphenix.protocol.ProtocolLibrary;
+import com.jcwhatever.nucleus.managed.scheduler.Scheduler;
+import com.jcwhatever.nucleus.storage.IDataNode;
 import com.jcwhatever.nucleus.utils.PreCon;
+import com.jcwhatever.nucleus.utils.coords.ChunkCoords;
+import com.jcwhatever.nucleus.utils.coords.IChunkCoords;
 import com.jcwhatever.nucleus.utils.managers.NamedInsensitiveManager;
+import com.jcwhatever.phantom.blocks.BlockContextManager;
 import com.jcwhatever.phantom.PhantomPackets;
+import com.jcwhatever.phantom.blocks.ClientChunkTracker;
+import com.jcwhatever.phantom.blocks.PacketQueue.IChunkSender;
+import com.jcwhatever.phantom.blocks.ResendPolicy;
+import com.jcwhatever.phantom.collections.LongHashMap;
+import com.jcwhatever.phantom.data.IChunkData;
+import com.jcwhatever.phantom.light.LightEngine.ILightCallback;
+import com.jcwhatever.phantom.nms.INmsHandler;
 
+import org.bukkit.Chunk;
 import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.World.Environment;
+import org.bukkit.entity.Player;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
 
 /**
  * Manage light sources.
+ *
+ * <p>Phantom light sources are indexed by the chunks they reach so their light
+ * can be written into outgoing chunk packets.</p>
+ *
+ * <p>Light changes are queued and applied on the next tick. Repeated changes
+ * to the same light source are collapsed into one relight and the chunks of all
+ * relit world sources are resent together. The maximum number of relights per tick
+ * is stored in the plugin data node under "light-updates".</p>
+ *
+ * <p>Phantom light is propagated by the {@link LightEngine} on a worker thread.
+ * World light is relit by the server unless "async-relight" is enabled, in which
+ * case light increases are also propagated by the engine and written into the
+ * world on the main thread.</p>
  */
 public class LightManager extends NamedInsensitiveManager<LightSource> {
 
+    // per world index of chunk key to the immutable list of phantom lights that reach the chunk
+    private final Map<World, LongHashMap<List<LightSource>>> _chunkIndex =
+            new ConcurrentHashMap<>(5);
+
+    // light sources waiting to be relit, in the order they were first queued
+    private final Set<LightSource> _pendingUpdates = new LinkedHashSet<>(10);
+
+    private final IDataNode _dataNode;
+    private final LightEngine _engine;
+    private volatile int _maxRelightsPerTick;
+    private volatile boolean _isAsyncRelight;
+    private boolean _isFlushScheduled;
+
+    private final Runnable _flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushUpdates();
+        }
+    };
+
     /**
-     * Create a new light source.
+     * Constructor.
+     *
+     * @param dataNode  The data node to load and save the update settings from.
+     * @param engine    The engine used to propagate light.
+     */
+    public LightManager(IDataNode dataNode, LightEngine engine) {
+        PreCon.notNull(dataNode);
+        PreCon.notNull(engine);
+
+        _dataNode = dataNode;
+        _engine = engine;
+        _maxRelightsPerTick = dataNode.getInteger("max-relights-per-tick", 8);
+        _isAsyncRelight = dataNode.getBoolean("async-relight");
+    }
+
+    /**
+     * Determine if world light increases are propagated on the worker thread
+     * instead of relit by the server.
+     */
+    public boolean isAsyncRelight() {
+        return _isAsyncRelight;
+    }
+
+    /**
+     * Set world light increases propagated on the worker thread instead of
+     * relit by the server.
+     *
+     * @param isAsyncRelight  True to enable, otherwise false.
+     */
+    public void setAsyncRelight(boolean isAsyncRelight) {
+        _isAsyncRelight = isAsyncRelight;
+        _dataNode.set("async-relight", isAsyncRelight);
+        _dataNode.save();
+    }
+
+    /**
+     * Get the maximum number of light sources relit per tick.
+     */
+    public int getMaxRelightsPerTick() {
+        return _maxRelightsPerTick;
+    }
+
+    /**
+     * Set the maximum number of light sources relit per tick.
+     *
+     * @param relights  The number of relights.
+     */
+    public void setMaxRelightsPerTick(int relights) {
+        PreCon.positiveNumber(relights);
+
+        _maxRelightsPerTick = relights;
+        _dataNode.set("max-relights-per-tick", relights);
+        _dataNode.save();
+    }
+
+    /**
+     * Get the number of light sources waiting to be relit.
+     */
+    public int getPendingUpdates() {
+        synchronized (_pendingUpdates) {
+            return _pendingUpdates.size();
+        }
+    }
+
+    /**
+     * Create a new light source that is set in the world.
      *
      * @param name       The name of the light source.
      * @param location   The light source location.
@@ -45,15 +173,510 @@ public class LightManager extends NamedInsensitiveManager<LightSource> {
      * @return  The light source instance.
      */
     public LightSource create(String name, Location location, int intensity) {
+        return create(name, location, intensity, LightMode.WORLD);
+    }
+
+    /**
+     * Create a new light source.
+     *
+     * @param name       The name of the light source.
+     * @param location   The light source location.
+     * @param intensity  The intensity of the light.
+     * @param mode       The light mode.
+     *
+     * @return  The light source instance.
+     */
+    public LightSource create(String name, Location location, int intensity, LightMode mode) {
         PreCon.notNullOrEmpty(name);
         PreCon.notNull(location);
+        PreCon.notNull(location.getWorld());
         PreCon.positiveNumber(intensity);
+        PreCon.notNull(mode);
 
-        LightSource lightSource = new LightSource(name, location, intensity, this);
+        LightSource lightSource = new LightSource(name, location, intensity, mode, this);
         add(lightSource);
-
-        PhantomPackets.getNms().setLightSource(location, intensity, true);
+        queueUpdate(lightSource);
 
         return lightSource;
     }
+
+    @Override
+    public boolean remove(String name) {
+        PreCon.notNullOrEmpty(name);
+
+        LightSource lightSource = get(name);
+        if (lightSource == null)
+            return false;
+
+        if (super.remove(name)) {
+
+            synchronized (_pendingUpdates) {
+                _pendingUpdates.remove(lightSource);
+            }
+
+            LightOverlay overlay = lightSource.getOverlay();
+            if (overlay != null) {
+                unindex(overlay, lightSource);
+                resendChunks(overlay, lightSource, null);
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Determine if there are phantom lights in a world.
+     *
+     * @param world  The world to check.
+     */
+    public boolean hasPhantomLights(World world) {
+        PreCon.notNull(world);
+
+        LongHashMap<List<LightSource>> index = _chunkIndex.get(world);
+        return index != null && !index.isEmpty();
+    }
+
+    /**
+     * Determine if phantom lights reach a chunk.
+     *
+     * @param world   The world.
+     * @param chunkX  The chunk X coordinates.
+     * @param chunkZ  The chunk Z coordinates.
+     */
+    public boolean hasPhantomLights(World world, int chunkX, int chunkZ) {
+        return !getIndexed(world, chunkX, chunkZ).isEmpty();
+    }
+
+    /**
+     * Write the phantom lights a player can see into chunk data.
+     *
+     * <p>Safe to invoke from network threads.</p>
+     *
+     * @param player     The player the chunk data is sent to.
+     * @param world      The world of the chunk.
+     * @param chunkData  The chunk data.
+     *
+     * @return  True if a light level was changed.
+     */
+    public boolean applyTo(Player player, World world, IChunkData chunkData) {
+        PreCon.notNull(player);
+        PreCon.notNull(world);
+        PreCon.notNull(chunkData);
+
+        if (chunkData.isUnload())
+            return false;
+
+        List<LightSource> lights = getIndexed(world, chunkData.getX(), chunkData.getZ());
+        if (lights.isEmpty())
+            return false;
+
+        boolean isChanged = false;
+
+        for (LightSource lightSource : lights) {
+
+            if (!lightSource.canSee(player))
+                continue;
+
+            LightOverlay overlay = lightSource.getOverlay();
+            if (overlay != null)
+                isChanged |= overlay.applyTo(chunkData);
+        }
+
+        return isChanged;
+    }
+
+    /*
+     * Queue a light source to be relit with its current intensity on the next tick.
+     */
+    void queueUpdate(LightSource lightSource) {
+
+        synchronized (_pendingUpdates) {
+            _pendingUpdates.add(lightSource);
+
+            if (!_isFlushScheduled) {
+                _isFlushScheduled = true;
+                Scheduler.runTaskLater(PhantomPackets.getPlugin(), 1, _flushTask);
+            }
+        }
+    }
+
+    /*
+     * Relight queued light sources up to the per tick maximum. The chunks reached by
+     * world light sources relit by the server are resent once, phantom light and
+     * async world light are propagated by the engine.
+     */
+    private void flushUpdates() {
+
+        List<LightSource> updates;
+
+        synchronized (_pendingUpdates) {
+
+            _isFlushScheduled = false;
+
+            int total = Math.min(_pendingUpdates.size(), _maxRelightsPerTick);
+            updates = new ArrayList<>(total);
+
+            Iterator<LightSource> iterator = _pendingUpdates.iterator();
+            while (iterator.hasNext() && updates.size() < total) {
+                updates.add(iterator.next());
+                iterator.remove();
+            }
+
+            // remaining updates are relit on the following ticks
+            if (!_pendingUpdates.isEmpty()) {
+                _isFlushScheduled = true;
+                Scheduler.runTaskLater(PhantomPackets.getPlugin(), 1, _flushTask);
+            }
+        }
+
+        if (updates.isEmpty())
+            return;
+
+        INmsHandler nms = PhantomPackets.getNms();
+        Map<World, LongHashMap<IChunkCoords>> chunks = new HashMap<>(3);
+        Location location = new Location(null, 0, 0, 0);
+
+        for (LightSource lightSource : updates) {
+
+            if (lightSource.isDisposed())
+                continue;
+
+            int intensity = lightSource.getIntensity();
+
+            if (lightSource.getMode() == LightMode.PHANTOM) {
+                propagatePhantomLight(lightSource, intensity);
+                continue;
+            }
+
+            // light that only increases is the maximum of the current and the propagated
+            // levels, decreases have to remove light and are relit by the server.
+            if (_isAsyncRelight && intensity >= lightSource.getAppliedIntensity()) {
+                propagateWorldLight(lightSource, intensity);
+                continue;
+            }
+
+            lightSource.getLocation(location);
+            nms.setLightSource(location, intensity, false);
+            lightSource.setAppliedIntensity(intensity);
+
+            World world = location.getWorld();
+
+            LongHashMap<IChunkCoords> worldChunks = chunks.get(world);
+            if (worldChunks == null) {
+                worldChunks = new LongHashMap<>(32);
+                chunks.put(world, worldChunks);
+            }
+
+            // relighting can change light up to the maximum light level away from the source
+            int minChunkX = (location.getBlockX() - 15) >> 4;
+            int maxChunkX = (location.getBlockX() + 15) >> 4;
+            int minChunkZ = (location.getBlockZ() - 15) >> 4;
+            int maxChunkZ = (location.getBlockZ() + 15) >> 4;
+
+            for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+                for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+
+                    long key = LongHashMap.key(chunkX, chunkZ);
+                    if (!worldChunks.containsKey(key))
+                        worldChunks.put(key, new ChunkCoords(world, chunkX, chunkZ));
+                }
+            }
+        }
+
+        for (Entry<World, LongHashMap<IChunkCoords>> entry : chunks.entrySet()) {
+            nms.updateLightChunks(entry.getKey(), entry.getValue().values());
+        }
+    }
+
+    /*
+     * Propagate the light of a phantom light source and replace its overlay.
+     */
+    private void propagatePhantomLight(final LightSource lightSource, int intensity) {
+
+        Location location = lightSource.getLocation();
+
+        LightSnapshot snapshot = LightSnapshot.create(location.getWorld(),
+                location.getBlockX(), location.getBlockY(), location.getBlockZ(), intensity);
+
+        _engine.propagate(snapshot, new ILightCallback() {
+            @Override
+            public void onPropagated(LightPatch patch) {
+
+                // a newer update is queued if the intensity changed
+                if (!isCurrent(lightSource, patch))
+                    return;
+
+                LightOverlay overlay = new LightOverlay(patch);
+                LightOverlay previous = lightSource.setOverlay(overlay);
+
+                updateOverlay(lightSource, previous, overlay);
+            }
+        });
+    }
+
+    /*
+     * Propagate the light of a world light source and write it into the world.
+     */
+    private void propagateWorldLight(final LightSource lightSource, int intensity) {
+
+        Location location = lightSource.getLocation();
+
+        LightSnapshot snapshot = LightSnapshot.create(location.getWorld(),
+                location.getBlockX(), location.getBlockY(), location.getBlockZ(), intensity);
+
+        _engine.propagate(snapshot, new ILightCallback() {
+            @Override
+            public void onPropagated(LightPatch patch) {
+
+                // a newer update is queued if the intensity changed
+                if (!isCurrent(lightSource, patch))
+                    return;
+
+                INmsHandler nms = PhantomPackets.getNms();
+                World world = patch.getWorld();
+
+                long[] keys = patch.getChunkKeys();
+                List<IChunkCoords> chunks = new ArrayList<>(keys.length);
+
+                for (long key : keys) {
+
+                    int chunkX = LongHashMap.keyX(key);
+                    int chunkZ = LongHashMap.keyZ(key);
+
+                    // blocks may have changed since the snapshot, they are
+                    // corrected the next time the server relights the area.
+                    if (!world.isChunkLoaded(chunkX, chunkZ))
+                        continue;
+
+                    byte[][] sections = patch.getChunkLight(chunkX, chunkZ);
+                    if (sections == null)
+                        continue;
+
+                    nms.applyBlockLight(world.getChunkAt(chunkX, chunkZ), sections);
+                    chunks.add(new ChunkCoords(world, chunkX, chunkZ));
+                }
+
+                lightSource.setAppliedIntensity(patch.getIntensity());
+
+                nms.updateLightChunks(world, chunks);
+            }
+        });
+    }
+
+    /*
+     * Update the index and resend chunks after the overlay of a phantom light changes.
+     */
+    private void updateOverlay(LightSource lightSource,
+                               @Nullable LightOverlay previous, LightOverlay current) {
+
+        if (previous != null) {
+            unindex(previous, lightSource);
+            resendChunks(previous, lightSource, null);
+        }
+
+        index(current, lightSource);
+        resendChunks(current, lightSource, null);
+    }
+
+    /*
+     * Determine if a propagated patch is for the current state of a light source.
+     */
+    private boolean isCurrent(LightSource lightSource, LightPatch patch) {
+        return !lightSource.isDisposed() &&
+                isRegistered(lightSource) &&
+                lightSource.getIntensity() == patch.getIntensity();
+    }
+
+    /*
+     * Queue map chunk resends of the chunks a phantom light reaches. The resent
+     * chunks are translated with the current phantom lights by the packet listener.
+     */
+    void resendChunks(LightOverlay overlay, LightSource lightSource, @Nullable Player player) {
+
+        World world = lightSource.getWorld();
+
+        List<Player> players = player != null
+                ? Collections.singletonList(player)
+                : world.getPlayers();
+
+        if (players.isEmpty())
+            return;
+
+        BlockContextManager contexts = PhantomPackets.getBlockContexts();
+        ClientChunkTracker tracker = contexts.getChunkTracker();
+
+        for (int chunkX = overlay.getMinChunkX(); chunkX <= overlay.getMaxChunkX(); chunkX++) {
+            for (int chunkZ = overlay.getMinChunkZ(); chunkZ <= overlay.getMaxChunkZ(); chunkZ++) {
+
+                for (Player recipient : players) {
+
+                    if (!tracker.isLoaded(recipient, world, chunkX, chunkZ))
+                        continue;
+
+                    contexts.getPacketQueue().queueChunk(recipient,
+                            new ChunkKey(world, chunkX, chunkZ), chunkX, chunkZ,
+                            new ChunkSender(recipient, world, chunkX, chunkZ));
+                }
+            }
+        }
+    }
+
+    /*
+     * Add a phantom light to the chunks its overlay reaches.
+     */
+    private void index(LightOverlay overlay, LightSource lightSource) {
+
+        World world = lightSource.getWorld();
+
+        LongHashMap<List<LightSource>> index = _chunkIndex.get(world);
+        if (index == null) {
+            index = new LongHashMap<>(64);
+            _chunkIndex.put(world, index);
+        }
+
+        for (int chunkX = overlay.getMinChunkX(); chunkX <= overlay.getMaxChunkX(); chunkX++) {
+            for (int chunkZ = overlay.getMinChunkZ(); chunkZ <= overlay.getMaxChunkZ(); chunkZ++) {
+
+                long key = LongHashMap.key(chunkX, chunkZ);
+
+                List<LightSource> current = index.get(key);
+                List<LightSource> lights = current != null
+                        ? new ArrayList<>(current)
+                        : new ArrayList<LightSource>(1);
+
+                lights.add(lightSource);
+
+                index.put(key, Collections.unmodifiableList(lights));
+            }
+        }
+    }
+
+    /*
+     * Remove a phantom light from the chunks its overlay reaches.
+     */
+    private void unindex(LightOverlay overlay, LightSource lightSource) {
+
+        LongHashMap<List<LightSource>> index = _chunkIndex.get(lightSource.getWorld());
+        if (index == null)
+            return;
+
+        for (int chunkX = overlay.getMinChunkX(); chunkX <= overlay.getMaxChunkX(); chunkX++) {
+            for (int chunkZ = overlay.getMinChunkZ(); chunkZ <= overlay.getMaxChunkZ(); chunkZ++) {
+
+                long key = LongHashMap.key(chunkX, chunkZ);
+
+                List<LightSource> current = index.get(key);
+                if (current == null || !current.contains(lightSource))
+                    continue;
+
+                if (current.size() == 1) {
+                    index.remove(key);
+                    continue;
+                }
+
+                List<LightSource> lights = new ArrayList<>(current);
+                lights.remove(lightSource);
+
+                index.put(key, Collections.unmodifiableList(lights));
+            }
+        }
+    }
+
+    /*
+     * Get the phantom lights that reach a chunk.
+     */
+    private List<LightSource> getIndexed(World world, int chunkX, int chunkZ) {
+
+        LongHashMap<List<LightSource>> index = _chunkIndex.get(world);
+        if (index == null)
+            return Collections.emptyList();
+
+        List<LightSource> lights = index.get(LongHashMap.key(chunkX, chunkZ));
+        return lights != null
+                ? lights
+                : Collections.<LightSource>emptyList();
+    }
+
+    /*
+     * Determine if the light source is the instance registered with the manager.
+     */
+    private boolean isRegistered(LightSource lightSource) {
+        return get(lightSource.getName()) == lightSource;
+    }
+
+    /*
+     * Queue key of a light chunk resend.
+     */
+    private static class ChunkKey {
+
+        final World world;
+        final int x;
+        final int z;
+
+        ChunkKey(World world, int x, int z) {
+            this.world = world;
+            this.x = x;
+            this.z = z;
+        }
+
+        @Override
+        public int hashCode() {
+            return world.hashCode() ^ (x * 31) ^ z;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ChunkKey))
+                return false;
+
+            ChunkKey other = (ChunkKey)obj;
+            return other.world == world && other.x == x && other.z == z;
+        }
+    }
+
+    /*
+     * Sends a non-continuous map chunk of a world chunk.
+     */
+    private static class ChunkSender implements IChunkSender {
+
+        final Player player;
+        final World world;
+        final int x;
+        final int z;
+
+        ChunkSender(Player player, World world, int x, int z) {
+            this.player = player;
+            this.world = world;
+            this.x = x;
+            this.z = z;
+        }
+
+        @Override
+        public int send() {
+
+            if (!world.isChunkLoaded(x, z) ||
+                    !PhantomPackets.getBlockContexts().getChunkTracker().isLoaded(player, world, x, z)) {
+                return 0;
+            }
+
+            INmsHandler nms = PhantomPackets.getNms();
+            Chunk chunk = world.getChunkAt(x, z);
+
+            int sections = Integer.bitCount(nms.getChunkSectionMask(chunk));
+            if (sections == 0)
+                return 0;
+
+            try {
+                ProtocolLibrary.getProtocolManager()
+                        .sendServerPacket(player, nms.createMapChunkPacket(chunk));
+
+            } catch (InvocationTargetException e) {
+                e.printStackTrace();
+                return 0;
+            }
+
+            return ResendPolicy.getMapChunkSize(sections, world.getEnvironment() == Environment.NORMAL);
+        }
+    }
 }
@@ -0,0 +1,109 @@
+/*
+ * This file is part of PhantomPackets for Bukkit, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) JCThePants (www.jcwhatever.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jcwhatever.phantom.light;
+
+import com.jcwhatever.nucleus.utils.PreCon;
+import com.jcwhatever.phantom.data.IChunkData;
+
+/**
+ * Immutable block light of a phantom light source that is written into
+ * chunk data.
+ *
+ * <p>The light levels are propagated by the {@link LightEngine}, decreasing
+ * by the opacity of each block the light passes through, so the light is
+ * blocked by opaque blocks. The overlay only raises light levels, existing
+ * levels that are brighter are kept.</p>
+ */
+public final class LightOverlay {
+
+    final int x;
+    final int y;
+    final int z;
+    final int intensity;
+    final LightPatch patch;
+
+    /**
+     * Constructor.
+     *
+     * @param patch  The propagated light levels of the light source.
+     */
+    public LightOverlay(LightPatch patch) {
+        PreCon.notNull(patch);
+
+        this.x = patch.getX();
+        this.y = patch.getY();
+        this.z = patch.getZ();
+        this.intensity = patch.getIntensity();
+        this.patch = patch;
+    }
+
+    /**
+     * Get the number of blocks the light reaches from the source.
+     */
+    public int getRadius() {
+        return intensity - 1;
+    }
+
+    /**
+     * Get the smallest chunk X coordinates the light reaches.
+     */
+    public int getMinChunkX() {
+        return (x - getRadius()) >> 4;
+    }
+
+    /**
+     * Get the smallest chunk Z coordinates the light reaches.
+     */
+    public int getMinChunkZ() {
+        return (z - getRadius()) >> 4;
+    }
+
+    /**
+     * Get the largest chunk X coordinates the light reaches.
+     */
+    public int getMaxChunkX() {
+        return (x + getRadius()) >> 4;
+    }
+
+    /**
+     * Get the largest chunk Z coordinates the light reaches.
+     */
+    public int getMaxChunkZ() {
+        return (z + getRadius()) >> 4;
+    }
+
+    /**
+     * Write the light into the block light data of chunk data.
+     *
+     * <p>Only the sections present in the chunk data are written.</p>
+     *
+     * @param chunkData  The chunk data.
+     *
+     * @return  True if a light level was changed.
+     */
+    public boolean applyTo(IChunkData chunkData) {
+        return patch.applyTo(chunkData);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * This file is part of PhantomPackets for Bukkit, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) JCThePants (www.jcwhatever.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jcwhatever.phantom.light;
+
+import com.jcwhatever.nucleus.utils.PreCon;
+import com.jcwhatever.phantom.collections.LongHashMap;
+import com.jcwhatever.phantom.data.IChunkData;
+
+import org.bukkit.World;
+
+import javax.annotation.Nullable;
+
+/**
+ * Block light levels of a single light source computed by the {@link LightEngine}.
+ *
+ * <p>Levels are stored per chunk in block light nibble arrays that use the same
+ * layout as chunk data. The patch is not modified after it is computed and can
+ * be read from any thread.</p>
+ */
+public final class LightPatch {
+
+    private final World _world;
+    private final int _x;
+    private final int _y;
+    private final int _z;
+    private final int _intensity;
+
+    // chunk key to array of 16 section nibble arrays, null for sections without light
+    private final LongHashMap<byte[][]> _chunks;
+
+    /**
+     * Constructor.
+     *
+     * @param snapshot  The snapshot the light was computed from.
+     * @param chunks    The computed section nibble arrays of each chunk.
+     */
+    LightPatch(LightSnapshot snapshot, LongHashMap<byte[][]> chunks) {
+        _world = snapshot.getWorld();
+        _x = snapshot.getX();
+        _y = snapshot.getY();
+        _z = snapshot.getZ();
+        _intensity = snapshot.getIntensity();
+        _chunks = chunks;
+    }
+
+    /**
+     * Get the world the light source is in.
+     */
+    public World getWorld() {
+        return _world;
+    }
+
+    /**
+     * Get the X coordinates of the light source.
+     */
+    public int getX() {
+        return _x;
+    }
+
+    /**
+     * Get the Y coordinates of the light source.
+     */
+    public int getY() {
+        return _y;
+    }
+
+    /**
+     * Get the Z coordinates of the light source.
+     */
+    public int getZ() {
+        return _z;
+    }
+
+    /**
+     * Get the intensity the light was computed with.
+     */
+    public int getIntensity() {
+        return _intensity;
+    }
+
+    /**
+     * Get the keys of the chunks the light reaches.
+     *
+     * @see LongHashMap#keyX
+     * @see LongHashMap#keyZ
+     */
+    public long[] getChunkKeys() {
+        return _chunks.keys();
+    }
+
+    /**
+     * Get the section nibble arrays of a chunk.
+     *
+     * @param chunkX  The chunk X coordinates.
+     * @param chunkZ  The chunk Z coordinates.
+     *
+     * @return  Array of 16 nibble arrays, null entries for sections without light,
+     * or null if the light does not reach the chunk.
+     */
+    @Nullable
+    public byte[][] getChunkLight(int chunkX, int chunkZ) {
+        return _chunks.get(LongHashMap.key(chunkX, chunkZ));
+    }
+
+    /**
+     * Write the light into the block light data of chunk data.
+     *
+     * <p>Only the sections present in the chunk data are written. Levels
+     * that are already brighter are kept.</p>
+     *
+     * @param chunkData  The chunk data.
+     *
+     * @return  True if a light level was changed.
+     */
+    public boolean applyTo(IChunkData chunkData) {
+        PreCon.notNull(chunkData);
+
+        byte[][] sections = getChunkLight(chunkData.getX(), chunkData.getZ());
+        if (sections == null)
+            return false;
+
+        byte[] data = chunkData.getData();
+        if (data == null || chunkData.getStartIndex() + chunkData.getChunkSize() > data.length)
+            return false;
+
+        boolean isChanged = false;
+
+        for (int sectionDataIndex = 0; sectionDataIndex < chunkData.getSectionDataCount(); sectionDataIndex++) {
+
+            byte[] light = sections[chunkData.getSectionChunkIndex(sectionDataIndex)];
+            if (light == null)
+                continue;
+
+            int start = chunkData.getBlockLightStart(sectionDataIndex);
+
+            for (int i = 0; i < light.length; i++) {
+
+                if (light[i] == 0)
+                    continue;
+
+                int current = data[start + i];
+
+                int low = Math.max(current & 0xF, light[i] & 0xF);
+                int high = Math.max((current >> 4) & 0xF, (light[i] >> 4) & 0xF);
+
+                byte level = (byte) ((high << 4) | low);
+                if (level == current)
+                    continue;
+
+                data[start + i] = level;
+                isChanged = true;
+            }
+        }
+
+        return isChanged;
+    }
+}
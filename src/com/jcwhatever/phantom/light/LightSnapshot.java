@@ -0,0 +1,169 @@
+/*
+ * This file is part of PhantomPackets for Bukkit, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) JCThePants (www.jcwhatever.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jcwhatever.phantom.light;
+
+import com.jcwhatever.nucleus.utils.PreCon;
+import com.jcwhatever.phantom.PhantomPackets;
+import com.jcwhatever.phantom.nms.INmsHandler;
+
+import org.bukkit.World;
+
+/**
+ * Copy of the blocks around a light source, used to propagate the light
+ * away from the main thread.
+ *
+ * <p>Only the chunk sections the light can reach are copied. Blocks in
+ * chunks that are not loaded are treated as air.</p>
+ */
+public final class LightSnapshot {
+
+    private final World _world;
+    private final int _x;
+    private final int _y;
+    private final int _z;
+    private final int _intensity;
+    private final int _minChunkX;
+    private final int _minChunkZ;
+    private final int _chunksX;
+
+    // section block ID's indexed by chunk then section Y
+    private final char[][][] _chunks;
+
+    /**
+     * Create a snapshot of the blocks a light source can reach.
+     *
+     * <p>Must be invoked from the main thread.</p>
+     *
+     * @param world      The world the light source is in.
+     * @param x          The X coordinates of the light source.
+     * @param y          The Y coordinates of the light source.
+     * @param z          The Z coordinates of the light source.
+     * @param intensity  The intensity of the light. (0-15)
+     */
+    public static LightSnapshot create(World world, int x, int y, int z, int intensity) {
+        PreCon.notNull(world);
+
+        return new LightSnapshot(world, x, y, z, Math.max(0, Math.min(15, intensity)));
+    }
+
+    private LightSnapshot(World world, int x, int y, int z, int intensity) {
+
+        _world = world;
+        _x = x;
+        _y = y;
+        _z = z;
+        _intensity = intensity;
+
+        int radius = Math.max(0, intensity - 1);
+
+        _minChunkX = (x - radius) >> 4;
+        _minChunkZ = (z - radius) >> 4;
+        _chunksX = ((x + radius) >> 4) - _minChunkX + 1;
+
+        int chunksZ = ((z + radius) >> 4) - _minChunkZ + 1;
+
+        int minSection = Math.max(0, y - radius) >> 4;
+        int maxSection = Math.min(255, y + radius) >> 4;
+        int sectionMask = ((1 << (maxSection + 1)) - 1) & ~((1 << minSection) - 1);
+
+        INmsHandler nms = PhantomPackets.getNms();
+
+        _chunks = new char[_chunksX * chunksZ][][];
+
+        for (int chunkX = 0; chunkX < _chunksX; chunkX++) {
+            for (int chunkZ = 0; chunkZ < chunksZ; chunkZ++) {
+
+                if (!world.isChunkLoaded(_minChunkX + chunkX, _minChunkZ + chunkZ))
+                    continue;
+
+                _chunks[chunkZ * _chunksX + chunkX] = nms.getSectionBlockIds(
+                        world.getChunkAt(_minChunkX + chunkX, _minChunkZ + chunkZ), sectionMask);
+            }
+        }
+    }
+
+    /**
+     * Get the world the light source is in.
+     */
+    public World getWorld() {
+        return _world;
+    }
+
+    /**
+     * Get the X coordinates of the light source.
+     */
+    public int getX() {
+        return _x;
+    }
+
+    /**
+     * Get the Y coordinates of the light source.
+     */
+    public int getY() {
+        return _y;
+    }
+
+    /**
+     * Get the Z coordinates of the light source.
+     */
+    public int getZ() {
+        return _z;
+    }
+
+    /**
+     * Get the intensity of the light.
+     */
+    public int getIntensity() {
+        return _intensity;
+    }
+
+    /**
+     * Get the combined ID of a block in the snapshot.
+     *
+     * <p>Blocks outside of the copied sections are air.</p>
+     *
+     * @param x  The X coordinates of the block.
+     * @param y  The Y coordinates of the block.
+     * @param z  The Z coordinates of the block.
+     */
+    public int getBlockId(int x, int y, int z) {
+
+        int chunkX = (x >> 4) - _minChunkX;
+        int chunkZ = (z >> 4) - _minChunkZ;
+
+        if (chunkX < 0 || chunkX >= _chunksX || chunkZ < 0 || y < 0 || y > 255)
+            return 0;
+
+        int chunkIndex = chunkZ * _chunksX + chunkX;
+        if (chunkIndex >= _chunks.length || _chunks[chunkIndex] == null)
+            return 0;
+
+        char[] section = _chunks[chunkIndex][y >> 4];
+        if (section == null)
+            return 0;
+
+        return section[((y & 0xF) << 8) | ((z & 0xF) << 4) | (x & 0xF)];
+    }
+}
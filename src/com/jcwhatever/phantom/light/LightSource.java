@@ -24,26 +24,49 @@
 
 package com.jcwhatever.phantom.light;
 
+import com.jcwhatever.nucleus.collections.players.PlayerSet;
 import com.jcwhatever.nucleus.mixins.IDisposable;
 import com.jcwhatever.nucleus.mixins.INamedInsensitive;
 import com.jcwhatever.nucleus.utils.PreCon;
 import com.jcwhatever.nucleus.utils.coords.LocationUtils;
+import com.jcwhatever.phantom.IViewable;
 import com.jcwhatever.phantom.PhantomPackets;
 
 import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.Nullable;
 
 /**
  * A named light source.
+ *
+ * <p>Viewers only apply to {@link LightMode#PHANTOM} light sources. A world
+ * light source can be seen by all players.</p>
  */
-public class LightSource implements INamedInsensitive, IDisposable {
+public class LightSource implements INamedInsensitive, IViewable, IDisposable {
 
     private final String _name;
     private final String _searchName;
     private final Location _location = new Location(null, 0, 0, 0);
+    private final LightMode _mode;
     private final LightManager _manager;
 
-    private int _intensity;
-    private boolean _isDisposed;
+    private volatile int _intensity;
+    private int _appliedIntensity;
+    private volatile LightOverlay _overlay;
+    private volatile ViewPolicy _viewPolicy = ViewPolicy.BLACKLIST;
+    private volatile boolean _isDisposed;
+
+    private Set<Player> _viewers;
+
+    // immutable copy of the viewers read by packet handlers
+    private volatile Set<Player> _publishedViewers = Collections.emptySet();
 
     /**
      * Constructor.
@@ -54,14 +77,32 @@ public class LightSource implements INamedInsensitive, IDisposable {
      * @param manager    The owning light manager.
      */
     public LightSource(String name, Location location, int intensity, LightManager manager) {
+        this(name, location, intensity, LightMode.WORLD, manager);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param name       The name of the light source.
+     * @param location   The light source location.
+     * @param intensity  The light source intensity.
+     * @param mode       The light mode.
+     * @param manager    The owning light manager.
+     */
+    public LightSource(String name, Location location, int intensity,
+                       LightMode mode, LightManager manager) {
         PreCon.notNullOrEmpty(name);
         PreCon.notNull(location);
+        PreCon.notNull(location.getWorld());
         PreCon.notNull(intensity);
+        PreCon.notNull(mode);
+        PreCon.notNull(manager);
 
         _name = name;
         _searchName = name.toLowerCase();
         LocationUtils.copy(location, _location);
         _intensity = intensity;
+        _mode = mode;
         _manager = manager;
     }
 
@@ -75,6 +116,20 @@ public class LightSource implements INamedInsensitive, IDisposable {
         return _searchName;
     }
 
+    /**
+     * Get the light mode.
+     */
+    public LightMode getMode() {
+        return _mode;
+    }
+
+    /**
+     * Get the world the light source is in.
+     */
+    public World getWorld() {
+        return _location.getWorld();
+    }
+
     public Location getLocation() {
         return LocationUtils.copy(_location);
     }
@@ -93,7 +148,125 @@ public class LightSource implements INamedInsensitive, IDisposable {
         PreCon.positiveNumber(intensity);
 
         _intensity = intensity;
-        PhantomPackets.getNms().setLightSource(_location, intensity, true);
+
+        // relit on the next tick, repeated changes are collapsed
+        _manager.queueUpdate(this);
+    }
+
+    /**
+     * Get the light overlay written into chunk packets.
+     *
+     * @return  The overlay or null if the light source is not a phantom light
+     * or its light has not been propagated yet.
+     */
+    @Nullable
+    public LightOverlay getOverlay() {
+        return _overlay;
+    }
+
+    @Override
+    public ViewPolicy getViewPolicy() {
+        return _viewPolicy;
+    }
+
+    @Override
+    public void setViewPolicy(ViewPolicy viewPolicy) {
+        PreCon.notNull(viewPolicy);
+
+        if (_viewPolicy == viewPolicy)
+            return;
+
+        _viewPolicy = viewPolicy;
+
+        resendChunks(null);
+    }
+
+    @Override
+    public boolean canSee(Player player) {
+        PreCon.notNull(player);
+
+        if (_isDisposed)
+            return false;
+
+        if (_mode == LightMode.WORLD)
+            return true;
+
+        switch (_viewPolicy) {
+            case WHITELIST:
+                return _publishedViewers.contains(player);
+            case BLACKLIST:
+                return !_publishedViewers.contains(player);
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    @Override
+    public boolean hasViewer(Player player) {
+        PreCon.notNull(player);
+
+        return _viewers != null && _viewers.contains(player);
+    }
+
+    @Override
+    public boolean addViewer(Player player) {
+        PreCon.notNull(player);
+
+        if (_viewers == null)
+            _viewers = new PlayerSet(PhantomPackets.getPlugin());
+
+        boolean added = _viewers.add(player);
+        publishViewers();
+        resendChunks(player);
+        return added;
+    }
+
+    @Override
+    public boolean removeViewer(Player player) {
+        PreCon.notNull(player);
+
+        if (_viewers != null && _viewers.remove(player)) {
+            publishViewers();
+            resendChunks(player);
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public void clearViewers() {
+        if (_viewers == null)
+            return;
+
+        List<Player> players = getViewers();
+
+        _viewers.clear();
+        publishViewers();
+
+        for (Player player : players) {
+            resendChunks(player);
+        }
+    }
+
+    @Override
+    public List<Player> getViewers() {
+        return _viewers != null
+                ? new ArrayList<>(_viewers)
+                : new ArrayList<Player>(0);
+    }
+
+    @Override
+    public void refreshView() {
+        if (_viewers == null)
+            return;
+
+        //noinspection SynchronizeOnNonFinalField
+        synchronized (_viewers) {
+            for (Player player : _viewers) {
+                resendChunks(player);
+            }
+        }
     }
 
     @Override
@@ -105,5 +278,63 @@ public class LightSource implements INamedInsensitive, IDisposable {
     public void dispose() {
         _isDisposed = true;
         _manager.remove(_searchName);
+
+        if (_viewers != null)
+            _viewers.clear();
+
+        _publishedViewers = Collections.emptySet();
+    }
+
+    /*
+     * Replace the overlay of a phantom light. Returns the previous overlay.
+     */
+    LightOverlay setOverlay(LightOverlay overlay) {
+        LightOverlay previous = _overlay;
+        _overlay = overlay;
+        return previous;
+    }
+
+    /*
+     * Get the intensity last applied to the world by a world light.
+     */
+    int getAppliedIntensity() {
+        return _appliedIntensity;
+    }
+
+    /*
+     * Set the intensity last applied to the world by a world light.
+     */
+    void setAppliedIntensity(int intensity) {
+        _appliedIntensity = intensity;
+    }
+
+    /*
+     * Resend the chunks reached by a phantom light to a player or all players
+     * in the world if the player is null.
+     */
+    private void resendChunks(@Nullable Player player) {
+
+        LightOverlay overlay = _overlay;
+        if (overlay == null || _isDisposed)
+            return;
+
+        _manager.resendChunks(overlay, this, player);
+    }
+
+    /*
+     * Replace the viewers read by packet handlers with a copy of the current viewers.
+     */
+    private void publishViewers() {
+
+        if (_viewers == null || _viewers.isEmpty()) {
+            _publishedViewers = Collections.emptySet();
+            return;
+        }
+
+        // identity set so a player that reconnects is not matched by a stale instance
+        Set<Player> viewers = Collections.newSetFromMap(new IdentityHashMap<Player, Boolean>(_viewers.size()));
+        viewers.addAll(_viewers);
+
+        _publishedViewers = Collections.unmodifiableSet(viewers);
     }
 }
@@ -25,6 +25,7 @@
 package com.jcwhatever.phantom.nms;
 
 import com.comphenix.protocol.events.PacketContainer;
+import com.jcwhatever.nucleus.utils.coords.IChunkCoords;
 import com.jcwhatever.nucleus.utils.coords.ICoords2Di;
 import com.jcwhatever.phantom.IPhantomChunk;
 import com.jcwhatever.phantom.data.ChunkBulkData;
@@ -36,10 +37,13 @@ import com.jcwhatever.phantom.packets.IBlockDigPacket;
 import com.jcwhatever.phantom.packets.IBlockPlacePacket;
 import com.jcwhatever.phantom.packets.IMultiBlockChangePacket;
 
+import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.World;
 
+import java.util.Collection;
+
 /*
  * 
  */
@@ -57,9 +61,97 @@ public interface INmsHandler {
 
     IMultiBlockChangePacket getMultiBlockChangePacket(PacketContainer packet);
 
+    /**
+     * Create a multi block change packet from block positions and combined ID's.
+     *
+     * @param chunkX       The chunk X coordinates.
+     * @param chunkZ       The chunk Z coordinates.
+     * @param positions    The packed positions of the blocks, relative X in bits 12-15,
+     *                     relative Z in bits 8-11 and Y in bits 0-7.
+     * @param combinedIds  The combined ID's of the blocks.
+     * @param totalBlocks  The number of blocks to read from the arrays.
+     */
+    PacketContainer createMultiBlockChangePacket(int chunkX, int chunkZ,
+                                                 short[] positions, int[] combinedIds, int totalBlocks);
+
+    /**
+     * Create a non-continuous map chunk packet containing every section
+     * of a world chunk.
+     *
+     * @param chunk  The world chunk.
+     */
+    PacketContainer createMapChunkPacket(Chunk chunk);
+
+    /**
+     * Get the mask of the sections a world chunk has allocated.
+     *
+     * @param chunk  The world chunk.
+     */
+    int getChunkSectionMask(Chunk chunk);
+
+    /**
+     * Copy the combined block ID's of world chunk sections.
+     *
+     * <p>Sections that are not allocated are returned as null.</p>
+     *
+     * @param chunk        The world chunk.
+     * @param sectionMask  The bit mask of the sections to copy.
+     *
+     * @return  Array of 16 sections, each with 4096 combined ID's in chunk data order.
+     */
+    char[][] getSectionBlockIds(Chunk chunk, int sectionMask);
+
+    /**
+     * Get the amount of light a block removes from light passing through it.
+     *
+     * <p>Safe to invoke from any thread.</p>
+     *
+     * @param combinedId  The combined ID of the block.
+     *
+     * @return  The opacity. (0-15)
+     */
+    int getLightOpacity(int combinedId);
+
+    /**
+     * Raise the block light levels of a world chunk to the levels in nibble arrays.
+     *
+     * <p>Levels that are already brighter are kept. Sections that are not
+     * allocated in the world chunk are skipped.</p>
+     *
+     * @param chunk     The world chunk.
+     * @param sections  Array of 16 block light nibble arrays, null for sections without light.
+     */
+    void applyBlockLight(Chunk chunk, byte[][] sections);
+
     ChunkBulkData getChunkBulkData(PacketContainer packet, World world);
 
     ChunkData getChunkData(PacketContainer packet, World world);
 
+    /**
+     * Write chunk data that was replaced while translating back into a map chunk packet.
+     *
+     * @param packet     The map chunk packet.
+     * @param chunkData  The chunk data read from the packet.
+     */
+    void saveChunkData(PacketContainer packet, ChunkData chunkData);
+
+    /**
+     * Write chunk data that was replaced while translating back into a map chunk bulk packet.
+     *
+     * @param packet    The map chunk bulk packet.
+     * @param bulkData  The bulk data read from the packet.
+     */
+    void saveChunkBulkData(PacketContainer packet, ChunkBulkData bulkData);
+
     void setLightSource(Location location, int intensity, boolean updateChunks);
+
+    /**
+     * Resend chunks with updated lighting to the players that have them loaded.
+     *
+     * <p>Each chunk is sent to each player at most once.</p>
+     *
+     * @param world   The world the chunks are in.
+     * @param chunks  The coordinates of the chunks to resend.
+     */
+    void updateLightChunks(World world, Collection<IChunkCoords> chunks);
 }
@@ -0,0 +1,118 @@
+/*
+ * This file is part of PhantomPackets for Bukkit, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) JCThePants (www.jcwhatever.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jcwhatever.phantom.nms.v1_8_R3;
+
+import com.jcwhatever.phantom.Utils;
+
+import net.minecraft.server.v1_8_R3.Block;
+import net.minecraft.server.v1_8_R3.IBlockData;
+
+import org.bukkit.Material;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Dense lookup tables for converting between combined block ID's
+ * and v1_8_R3 block states.
+ *
+ * <p>The tables are built once when the class is initialized. Conversions
+ * are array or identity map lookups instead of block registry lookups.</p>
+ */
+public final class BlockStates {
+
+    private BlockStates() {}
+
+    private static final int TOTAL_IDS = 1 << 16;
+
+    private static final IBlockData[] BLOCK_DATA = new IBlockData[TOTAL_IDS];
+    private static final Map<IBlockData, Integer> COMBINED_IDS = new IdentityHashMap<>(8192);
+
+    static {
+        for (int combinedId = 0; combinedId < TOTAL_IDS; combinedId++) {
+
+            IBlockData data;
+            try {
+                data = Block.getByCombinedId(combinedId);
+            }
+            catch (RuntimeException e) {
+                // some blocks reject invalid meta values
+                data = null;
+            }
+
+            if (data == null)
+                data = Block.getById(combinedId & 0xFFF).getBlockData();
+
+            BLOCK_DATA[combinedId] = data;
+
+            if (!COMBINED_IDS.containsKey(data))
+                COMBINED_IDS.put(data, Block.getCombinedId(data));
+        }
+    }
+
+    /**
+     * Build the lookup tables if they have not been built.
+     *
+     * <p>Invoke while enabling to avoid building the tables on the
+     * first translated packet.</p>
+     */
+    public static void init() {
+        // tables are built by the static initializer
+    }
+
+    /**
+     * Get the block state of a combined ID.
+     *
+     * @param combinedId  The combined ID.
+     */
+    public static IBlockData getBlockData(int combinedId) {
+        return BLOCK_DATA[combinedId & 0xFFFF];
+    }
+
+    /**
+     * Get the block state of a material and data.
+     *
+     * @param material  The material.
+     * @param data      The material data.
+     */
+    public static IBlockData getBlockData(Material material, int data) {
+        return BLOCK_DATA[Utils.getCombinedId(material, (byte)data)];
+    }
+
+    /**
+     * Get the combined ID of a block state.
+     *
+     * @param data  The block state.
+     */
+    public static int getCombinedId(IBlockData data) {
+
+        Integer combinedId = COMBINED_IDS.get(data);
+        if (combinedId != null)
+            return combinedId;
+
+        // block state not created through the registry
+        return Block.getCombinedId(data);
+    }
+}
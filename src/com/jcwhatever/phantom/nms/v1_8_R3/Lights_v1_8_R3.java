@@ -42,6 +42,7 @@ import net.minecraft.server.v1_8_R3.EntityPlayer;
 import net.minecraft.server.v1_8_R3.EnumSkyBlock;
 import net.minecraft.server.v1_8_R3.PacketPlayOutMapChunk;
 import net.minecraft.server.v1_8_R3.PacketPlayOutMapChunkBulk;
+import net.minecraft.server.v1_8_R3.PlayerChunkMap;
 import net.minecraft.server.v1_8_R3.WorldServer;
 
 import org.bukkit.Location;
@@ -54,6 +55,10 @@ import org.bukkit.entity.Entity;
  */
 public class Lights_v1_8_R3 {
 
+    // The most chunks sent in one bulk packet, same as the server when sending
+    // chunks to a player. Keeps full chunk bulks under the protocol packet size limit.
+    private static final int MAX_BULK_CHUNKS = 10;
+
     public void setLightSource(Location location, int intensity, boolean updateChunks) {
 
         WorldServer world = ((CraftWorld)location.getWorld()).getHandle();
@@ -76,49 +81,93 @@ public class Lights_v1_8_R3 {
         // recalculate lighting
         world.c(EnumSkyBlock.BLOCK, position);
 
-        if (updateChunks) {
-            Collection<IChunkCoords> localChunks = ChunkUtils.getChunksInRadius(location, 8);
-            if (localChunks.size() == 1) {
-                updateChunk(location.getWorld(), Iterables.getFirst(localChunks, null));
-            } else {
-                updateChunks(location.getWorld(), localChunks);
-            }
-        }
+        if (updateChunks)
+            updateChunks(location.getWorld(), ChunkUtils.getChunksInRadius(location, 8));
     }
 
-    private void updateChunks(org.bukkit.World world, Collection<IChunkCoords> coords) {
+    public void updateChunks(org.bukkit.World world, Collection<IChunkCoords> coords) {
+
+        if (coords.isEmpty())
+            return;
 
-        List<Chunk> chunks = new ArrayList<>(coords.size());
-        for (IChunkCoords coord : coords) {
-            Chunk chunk = ((CraftWorld) world).getHandle().getChunkAt(coord.getX(), coord.getZ());
-            chunks.add(chunk);
+        if (coords.size() == 1) {
+            updateChunk(world, Iterables.getFirst(coords, null));
+        } else {
+            updateChunkBulks(world, coords);
         }
+    }
 
-        PacketPlayOutMapChunkBulk bulkPacket = new PacketPlayOutMapChunkBulk(chunks);
-        List<EntityHuman> players = ((CraftWorld)world).getHandle().players;
+    /*
+     * Resend relit chunks to the players that have them loaded. Each player is sent
+     * only the chunks they are watching, each chunk at most once, in bulk packets of
+     * up to MAX_BULK_CHUNKS chunks.
+     */
+    private void updateChunkBulks(org.bukkit.World world, Collection<IChunkCoords> coords) {
 
-        for (Chunk chunk : chunks) {
-            for (EntityHuman human : players) {
-                if (human instanceof EntityPlayer) {
+        WorldServer handle = ((CraftWorld)world).getHandle();
+        PlayerChunkMap chunkMap = handle.getPlayerChunkMap();
 
-                    Entity entity = human.getBukkitEntity();
-                    if (Npcs.isNpc(entity))
-                        continue;
+        List<IChunkCoords> coordsList = new ArrayList<>(coords);
 
-                    EntityPlayer player = (EntityPlayer) human;
-                    if (distance(player, chunk) <= 6) {
-                        player.playerConnection.sendPacket(bulkPacket);
-                    }
-                }
+        // chunks are looked up once and shared by all players
+        Chunk[] chunks = new Chunk[coordsList.size()];
+
+        List<EntityHuman> players = handle.players;
+        List<Chunk> playerChunks = new ArrayList<>(coordsList.size());
+
+        for (EntityHuman human : players) {
+            if (!(human instanceof EntityPlayer))
+                continue;
+
+            Entity entity = human.getBukkitEntity();
+            if (Npcs.isNpc(entity))
+                continue;
+
+            EntityPlayer player = (EntityPlayer) human;
+
+            playerChunks.clear();
+
+            for (int i = 0; i < chunks.length; i++) {
+
+                IChunkCoords coord = coordsList.get(i);
+
+                // only chunks the client has already received
+                if (!chunkMap.a(player, coord.getX(), coord.getZ()))
+                    continue;
+
+                if (chunks[i] == null)
+                    chunks[i] = handle.getChunkAt(coord.getX(), coord.getZ());
+
+                playerChunks.add(chunks[i]);
+            }
+
+            if (playerChunks.isEmpty())
+                continue;
+
+            if (playerChunks.size() == 1) {
+                player.playerConnection.sendPacket(
+                        new PacketPlayOutMapChunk(playerChunks.get(0), false, 65535));
+                continue;
+            }
+
+            for (int i = 0; i < playerChunks.size(); i += MAX_BULK_CHUNKS) {
+
+                List<Chunk> bulk = new ArrayList<>(
+                        playerChunks.subList(i, Math.min(i + MAX_BULK_CHUNKS, playerChunks.size())));
+
+                player.playerConnection.sendPacket(new PacketPlayOutMapChunkBulk(bulk));
             }
         }
     }
 
     private void updateChunk(org.bukkit.World world, IChunkCoords coords) {
 
-        Chunk chunk = ((CraftWorld) world).getHandle().getChunkAt(coords.getX(), coords.getZ());
+        WorldServer handle = ((CraftWorld)world).getHandle();
+        PlayerChunkMap chunkMap = handle.getPlayerChunkMap();
+
+        Chunk chunk = handle.getChunkAt(coords.getX(), coords.getZ());
         PacketPlayOutMapChunk packet = new PacketPlayOutMapChunk(chunk, false, 65535);
-        List<EntityHuman> players = ((CraftWorld)world).getHandle().players;
+        List<EntityHuman> players = handle.players;
 
         for (EntityHuman human : players) {
             if (human instanceof EntityPlayer) {
@@ -128,19 +177,10 @@ public class Lights_v1_8_R3 {
                     continue;
 
                 EntityPlayer player = (EntityPlayer) human;
-                if (distance(player, chunk) <= 6) {
+                if (chunkMap.a(player, coords.getX(), coords.getZ())) {
                     player.playerConnection.sendPacket(packet);
                 }
             }
         }
     }
-
-    private int distance(EntityPlayer player, Chunk to) {
-        int fromX = (int)player.locX >> 4;
-        int fromZ = (int)player.locZ >> 4;
-
-        int deltaX = to.locX - fromX;
-        int deltaZ = to.locZ - fromZ;
-        return deltaX * deltaX + deltaZ * deltaZ;
-    }
 }
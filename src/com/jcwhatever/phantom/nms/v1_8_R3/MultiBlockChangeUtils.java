@@ -24,11 +24,6 @@
 
 package com.jcwhatever.phantom.nms.v1_8_R3;
 
-import com.jcwhatever.nucleus.managed.reflection.IReflectedInstance;
-import com.jcwhatever.nucleus.managed.reflection.IReflectedType;
-import com.jcwhatever.nucleus.managed.reflection.IReflection;
-import com.jcwhatever.nucleus.managed.reflection.Reflection;
-
 import net.minecraft.server.v1_8_R3.ChunkCoordIntPair;
 import net.minecraft.server.v1_8_R3.IBlockData;
 import net.minecraft.server.v1_8_R3.PacketPlayOutMultiBlockChange;
@@ -36,40 +31,15 @@ import net.minecraft.server.v1_8_R3.PacketPlayOutMultiBlockChange.MultiBlockChan
 
 public class MultiBlockChangeUtils {
 
-    static final IReflection reflection = Reflection.newContext();
-
-    static final IReflectedType _PacketPlayOutMultiBlockChange =
-            reflection.nmsType("PacketPlayOutMultiBlockChange")
-                .fieldAlias("coords", "a")
-                .fieldAlias("infoArray", "b");
-
-    static final IReflectedType _MultiBlockChangeInfo =
-            reflection.nmsType("PacketPlayOutMultiBlockChange$MultiBlockChangeInfo")
-                    .constructorAlias("new",
-                            PacketPlayOutMultiBlockChange.class,
-                            short.class, IBlockData.class)
-                    .fieldAlias("position", "b")
-                    .fieldAlias("data", "c");
-
-
-    static void modify(MultiBlockChangeInfo info, short position, IBlockData data) {
-
-        IReflectedInstance instance = _MultiBlockChangeInfo.reflect(info);
-
-        instance.set("position", position);
-        instance.set("data", data);
-    }
-
     public static MultiBlockChangeInfo create(
             PacketPlayOutMultiBlockChange packet, short position, IBlockData data) {
-        return (MultiBlockChangeInfo)_MultiBlockChangeInfo.construct("new", packet, position, data);
+        return PacketAccessors.newInfo(packet, position, data);
     }
 
     public static void initPacket(PacketPlayOutMultiBlockChange packet,
                                   ChunkCoordIntPair coords,
                                   PacketPlayOutMultiBlockChange.MultiBlockChangeInfo[] infoArray) {
-        IReflectedInstance instance = _PacketPlayOutMultiBlockChange.reflect(packet);
-        instance.set("coords", coords);
-        instance.set("infoArray", infoArray);
+        PacketAccessors.setCoords(packet, coords);
+        PacketAccessors.setInfo(packet, infoArray);
     }
 }
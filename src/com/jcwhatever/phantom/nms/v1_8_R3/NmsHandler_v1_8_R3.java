@@ -25,10 +25,12 @@
 package com.jcwhatever.phantom.nms.v1_8_R3;
 
 import com.comphenix.protocol.events.PacketContainer;
-import com.comphenix.protocol.reflect.StructureModifier;
+import com.jcwhatever.nucleus.utils.PreCon;
+import com.jcwhatever.nucleus.utils.coords.IChunkCoords;
 import com.jcwhatever.nucleus.utils.coords.ICoords2Di;
 import com.jcwhatever.nucleus.utils.nms.INmsHandler;
 import com.jcwhatever.phantom.IPhantomChunk;
+import com.jcwhatever.phantom.Utils;
 import com.jcwhatever.phantom.data.ChunkBulkData;
 import com.jcwhatever.phantom.data.ChunkData;
 import com.jcwhatever.phantom.data.IChunkData;
@@ -45,11 +47,21 @@ import com.jcwhatever.phantom.nms.v1_8_R3.packets.BlockPlacePacket_v1_8_R3;
 import com.jcwhatever.phantom.nms.v1_8_R3.packets.MultiBlockChangePacket_v1_8_R3;
 import net.minecraft.server.v1_8_R3.BaseBlockPosition;
 import net.minecraft.server.v1_8_R3.ChunkCoordIntPair;
+import net.minecraft.server.v1_8_R3.ChunkSection;
+import net.minecraft.server.v1_8_R3.IBlockData;
+import net.minecraft.server.v1_8_R3.PacketPlayOutBlockChange;
+import net.minecraft.server.v1_8_R3.PacketPlayOutMapChunk;
 import net.minecraft.server.v1_8_R3.PacketPlayOutMapChunk.ChunkMap;
+import net.minecraft.server.v1_8_R3.PacketPlayOutMapChunkBulk;
+import net.minecraft.server.v1_8_R3.PacketPlayOutMultiBlockChange;
 
+import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.World;
+import org.bukkit.craftbukkit.v1_8_R3.CraftChunk;
+
+import java.util.Collection;
 
 /*
  * 
@@ -58,7 +70,9 @@ public class NmsHandler_v1_8_R3 implements com.jcwhatever.phantom.nms.INmsHandle
 
     private Lights_v1_8_R3 _lights = new Lights_v1_8_R3();
 
-    public NmsHandler_v1_8_R3() {}
+    public NmsHandler_v1_8_R3() {
+        BlockStates.init();
+    }
 
     @Override
     public IBlockDigPacket getBlockDigPacket(PacketContainer packet) {
@@ -78,9 +92,8 @@ public class NmsHandler_v1_8_R3 implements com.jcwhatever.phantom.nms.INmsHandle
     @Override
     public BlockChangePacket_v1_8_R3 getBlockChangePacket(PacketContainer packet) {
 
-        StructureModifier<Object> objects = packet.getModifier();
-
-        BaseBlockPosition nmsBlockPosition = (BaseBlockPosition)objects.read(0);
+        BaseBlockPosition nmsBlockPosition = PacketAccessors.getPosition(
+                (PacketPlayOutBlockChange)packet.getHandle());
 
         int x = nmsBlockPosition.getX();
         int y = nmsBlockPosition.getY();
@@ -97,9 +110,8 @@ public class NmsHandler_v1_8_R3 implements com.jcwhatever.phantom.nms.INmsHandle
     @Override
     public IMultiBlockChangePacket getMultiBlockChangePacket(PacketContainer packet) {
 
-        StructureModifier<Object> objects = packet.getModifier();
-
-        ChunkCoordIntPair nmsCoords = (ChunkCoordIntPair)objects.read(0);
+        ChunkCoordIntPair nmsCoords = PacketAccessors.getCoords(
+                (PacketPlayOutMultiBlockChange)packet.getHandle());
         if (nmsCoords == null)
             throw new RuntimeException("Failed to ChunkCoordIntPair for MultiBlockChangePacket");
 
@@ -109,15 +121,108 @@ public class NmsHandler_v1_8_R3 implements com.jcwhatever.phantom.nms.INmsHandle
         return new MultiBlockChangePacket_v1_8_R3(this, packet, chunkX, chunkZ);
     }
 
+    @Override
+    public PacketContainer createMultiBlockChangePacket(int chunkX, int chunkZ,
+                                                        short[] positions, int[] combinedIds, int totalBlocks) {
+        return MultiBlockChangeFactory_v1_8_R3.createPacket(
+                chunkX, chunkZ, positions, combinedIds, totalBlocks);
+    }
+
+    @Override
+    public PacketContainer createMapChunkPacket(Chunk chunk) {
+        PreCon.notNull(chunk);
+
+        // non-continuous so the client keeps its biomes and tile entities
+        PacketPlayOutMapChunk packet = new PacketPlayOutMapChunk(
+                ((CraftChunk)chunk).getHandle(), false, 0xFFFF);
+
+        return PacketContainer.fromPacket(packet);
+    }
+
+    @Override
+    public int getChunkSectionMask(Chunk chunk) {
+        PreCon.notNull(chunk);
+
+        ChunkSection[] sections = ((CraftChunk)chunk).getHandle().getSections();
+
+        int mask = 0;
+        for (int i=0; i < sections.length; i++) {
+            if (sections[i] != null)
+                mask |= 1 << i;
+        }
+        return mask;
+    }
+
+    @Override
+    public char[][] getSectionBlockIds(Chunk chunk, int sectionMask) {
+        PreCon.notNull(chunk);
+
+        ChunkSection[] sections = ((CraftChunk)chunk).getHandle().getSections();
+        char[][] result = new char[16][];
+
+        for (int i=0; i < sections.length; i++) {
+            if ((sectionMask & (1 << i)) == 0 || sections[i] == null)
+                continue;
+
+            // legacy ID's, (block ID << 4) | data
+            char[] legacyIds = sections[i].getIdArray();
+            char[] combinedIds = new char[legacyIds.length];
+
+            for (int j=0; j < legacyIds.length; j++) {
+                combinedIds[j] = (char)Utils.getCombinedIdFromLegacyId(legacyIds[j]);
+            }
+
+            result[i] = combinedIds;
+        }
+        return result;
+    }
+
+    @Override
+    public int getLightOpacity(int combinedId) {
+        IBlockData data = BlockStates.getBlockData(combinedId);
+        return data != null
+                ? data.getBlock().p()
+                : 0;
+    }
+
+    @Override
+    public void applyBlockLight(Chunk chunk, byte[][] sections) {
+        PreCon.notNull(chunk);
+        PreCon.notNull(sections);
+
+        net.minecraft.server.v1_8_R3.Chunk handle = ((CraftChunk)chunk).getHandle();
+        ChunkSection[] chunkSections = handle.getSections();
+
+        for (int i=0; i < chunkSections.length; i++) {
+
+            if (sections[i] == null || chunkSections[i] == null)
+                continue;
+
+            byte[] source = sections[i];
+            byte[] target = chunkSections[i].getEmittedLightArray().a();
+
+            for (int j=0; j < target.length; j++) {
+
+                int low = Math.max(target[j] & 0xF, source[j] & 0xF);
+                int high = Math.max((target[j] >> 4) & 0xF, (source[j] >> 4) & 0xF);
+
+                target[j] = (byte)((high << 4) | low);
+            }
+        }
+
+        // mark the chunk modified so the light is saved
+        handle.e();
+    }
+
     @Override
     public ChunkBulkData getChunkBulkData(PacketContainer packet, World world) {
 
-        StructureModifier<Object> objects = packet.getModifier();
+        PacketPlayOutMapChunkBulk handle = (PacketPlayOutMapChunkBulk)packet.getHandle();
 
-        int[] chunkX = (int[])objects.read(0);
-        int[] chunkZ = (int[])objects.read(1);
+        int[] chunkX = PacketAccessors.getChunkX(handle);
+        int[] chunkZ = PacketAccessors.getChunkZ(handle);
 
-        ChunkMap[] nmsChunkMaps = (ChunkMap[])objects.read(2);
+        ChunkMap[] nmsChunkMaps = PacketAccessors.getChunkMaps(handle);
 
         int totalChunks = nmsChunkMaps.length;
 
@@ -134,7 +239,7 @@ public class NmsHandler_v1_8_R3 implements com.jcwhatever.phantom.nms.INmsHandle
             byte[] data = nmsChunkMaps[i].a;  // chunk data
             int mask = nmsChunkMaps[i].b;//  section mask
 
-            chunkData.init(x, z, mask, data, true);
+            chunkData.init(x, z, mask, data, true, true);
         }
 
         return new ChunkBulkData(world, chunkDataArray);
@@ -145,29 +250,69 @@ public class NmsHandler_v1_8_R3 implements com.jcwhatever.phantom.nms.INmsHandle
 
         ChunkData chunkData = new ChunkData(world);
 
-        StructureModifier<Integer> integers = packet.getSpecificModifier(int.class);
-        StructureModifier<Object> objects = packet.getModifier();
+        PacketPlayOutMapChunk handle = (PacketPlayOutMapChunk)packet.getHandle();
 
-        int chunkX = integers.read(0);
-        int chunkZ = integers.read(1);
+        int chunkX = PacketAccessors.getChunkX(handle);
+        int chunkZ = PacketAccessors.getChunkZ(handle);
 
-        ChunkMap nmsChunkMap = (ChunkMap)objects.read(2);
+        ChunkMap nmsChunkMap = PacketAccessors.getChunkMap(handle);
 
         byte[] data = nmsChunkMap.a; //  data array
         int mask = nmsChunkMap.b; // sectionMask
 
-        Boolean isContinuous = packet.getBooleans().readSafely(0);
-
-        chunkData.init(chunkX, chunkZ, mask, data, isContinuous != null && isContinuous);
+        chunkData.init(chunkX, chunkZ, mask, data, PacketAccessors.isContinuous(handle), false);
 
         return chunkData;
     }
 
+    @Override
+    public void saveChunkData(PacketContainer packet, ChunkData chunkData) {
+        PreCon.notNull(packet);
+        PreCon.notNull(chunkData);
+
+        if (!chunkData.isDataReplaced())
+            return;
+
+        // the chunk map may be shared with other packets
+        ChunkMap chunkMap = new ChunkMap();
+        chunkMap.a = chunkData.getData();
+        chunkMap.b = chunkData.getSectionMask();
+
+        PacketAccessors.setChunkMap((PacketPlayOutMapChunk)packet.getHandle(), chunkMap);
+    }
+
+    @Override
+    public void saveChunkBulkData(PacketContainer packet, ChunkBulkData bulkData) {
+        PreCon.notNull(packet);
+        PreCon.notNull(bulkData);
+
+        // bulk packets are created per player
+        ChunkMap[] nmsChunkMaps = PacketAccessors.getChunkMaps(
+                (PacketPlayOutMapChunkBulk)packet.getHandle());
+
+        IChunkData[] chunkDataArray = bulkData.getChunkData();
+
+        for (int i=0; i < chunkDataArray.length; i++) {
+
+            IChunkData chunkData = chunkDataArray[i];
+            if (!chunkData.isDataReplaced())
+                continue;
+
+            nmsChunkMaps[i].a = chunkData.getData();
+            nmsChunkMaps[i].b = chunkData.getSectionMask();
+        }
+    }
+
     @Override
     public void setLightSource(Location location, int intensity, boolean updateChunks) {
         _lights.setLightSource(location, intensity, updateChunks);
     }
 
+    @Override
+    public void updateLightChunks(World world, Collection<IChunkCoords> chunks) {
+        _lights.updateChunks(world, chunks);
+    }
+
     @Override
     public boolean isAvailable() {
         return true;
@@ -0,0 +1,282 @@
+/*
+ * This file is part of PhantomPackets for Bukkit, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) JCThePants (www.jcwhatever.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.jcwhatever.phantom.nms.v1_8_R3;
+
+import net.minecraft.server.v1_8_R3.BlockPosition;
+import net.minecraft.server.v1_8_R3.ChunkCoordIntPair;
+import net.minecraft.server.v1_8_R3.IBlockData;
+import net.minecraft.server.v1_8_R3.PacketPlayOutBlockChange;
+import net.minecraft.server.v1_8_R3.PacketPlayOutMapChunk;
+import net.minecraft.server.v1_8_R3.PacketPlayOutMapChunk.ChunkMap;
+import net.minecraft.server.v1_8_R3.PacketPlayOutMapChunkBulk;
+import net.minecraft.server.v1_8_R3.PacketPlayOutMultiBlockChange;
+import net.minecraft.server.v1_8_R3.PacketPlayOutMultiBlockChange.MultiBlockChangeInfo;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * Cached accessors for private fields of v1_8_R3 packets.
+ *
+ * <p>Fields are resolved by type and declaration order once, when the class is
+ * initialized, and are read and written through method handles instead of
+ * ProtocolLib structure modifiers.</p>
+ */
+public final class PacketAccessors {
+
+    private PacketAccessors() {}
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    // PacketPlayOutBlockChange
+    private static final MethodHandle BLOCK_CHANGE_GET_POSITION;
+    private static final MethodHandle BLOCK_CHANGE_SET_POSITION;
+    private static final MethodHandle BLOCK_CHANGE_GET_DATA;
+    private static final MethodHandle BLOCK_CHANGE_SET_DATA;
+
+    // PacketPlayOutMultiBlockChange
+    private static final MethodHandle MULTI_BLOCK_GET_COORDS;
+    private static final MethodHandle MULTI_BLOCK_SET_COORDS;
+    private static final MethodHandle MULTI_BLOCK_GET_INFO;
+    private static final MethodHandle MULTI_BLOCK_SET_INFO;
+    private static final MethodHandle MULTI_BLOCK_NEW_INFO;
+
+    // PacketPlayOutMapChunk
+    private static final MethodHandle MAP_CHUNK_GET_X;
+    private static final MethodHandle MAP_CHUNK_GET_Z;
+    private static final MethodHandle MAP_CHUNK_GET_MAP;
+    private static final MethodHandle MAP_CHUNK_SET_MAP;
+    private static final MethodHandle MAP_CHUNK_GET_CONTINUOUS;
+
+    // PacketPlayOutMapChunkBulk
+    private static final MethodHandle MAP_CHUNK_BULK_GET_X;
+    private static final MethodHandle MAP_CHUNK_BULK_GET_Z;
+    private static final MethodHandle MAP_CHUNK_BULK_GET_MAPS;
+
+    static {
+        try {
+            Field blockPosition = findField(PacketPlayOutBlockChange.class, BlockPosition.class, 0);
+            Field blockData = findField(PacketPlayOutBlockChange.class, IBlockData.class, 0);
+
+            BLOCK_CHANGE_GET_POSITION = LOOKUP.unreflectGetter(blockPosition);
+            BLOCK_CHANGE_SET_POSITION = LOOKUP.unreflectSetter(blockPosition);
+            BLOCK_CHANGE_GET_DATA = LOOKUP.unreflectGetter(blockData);
+            BLOCK_CHANGE_SET_DATA = LOOKUP.unreflectSetter(blockData);
+
+            Field multiCoords = findField(PacketPlayOutMultiBlockChange.class, ChunkCoordIntPair.class, 0);
+            Field multiInfo = findField(PacketPlayOutMultiBlockChange.class, MultiBlockChangeInfo[].class, 0);
+
+            MULTI_BLOCK_GET_COORDS = LOOKUP.unreflectGetter(multiCoords);
+            MULTI_BLOCK_SET_COORDS = LOOKUP.unreflectSetter(multiCoords);
+            MULTI_BLOCK_GET_INFO = LOOKUP.unreflectGetter(multiInfo);
+            MULTI_BLOCK_SET_INFO = LOOKUP.unreflectSetter(multiInfo);
+
+            Constructor<MultiBlockChangeInfo> infoConstructor = MultiBlockChangeInfo.class.getDeclaredConstructor(
+                    PacketPlayOutMultiBlockChange.class, short.class, IBlockData.class);
+            infoConstructor.setAccessible(true);
+
+            MULTI_BLOCK_NEW_INFO = LOOKUP.unreflectConstructor(infoConstructor);
+
+            MAP_CHUNK_GET_X = LOOKUP.unreflectGetter(findField(PacketPlayOutMapChunk.class, int.class, 0));
+            MAP_CHUNK_GET_Z = LOOKUP.unreflectGetter(findField(PacketPlayOutMapChunk.class, int.class, 1));
+            Field chunkMap = findField(PacketPlayOutMapChunk.class, ChunkMap.class, 0);
+            MAP_CHUNK_GET_MAP = LOOKUP.unreflectGetter(chunkMap);
+            MAP_CHUNK_SET_MAP = LOOKUP.unreflectSetter(chunkMap);
+            MAP_CHUNK_GET_CONTINUOUS = LOOKUP.unreflectGetter(findField(PacketPlayOutMapChunk.class, boolean.class, 0));
+
+            MAP_CHUNK_BULK_GET_X = LOOKUP.unreflectGetter(findField(PacketPlayOutMapChunkBulk.class, int[].class, 0));
+            MAP_CHUNK_BULK_GET_Z = LOOKUP.unreflectGetter(findField(PacketPlayOutMapChunkBulk.class, int[].class, 1));
+            MAP_CHUNK_BULK_GET_MAPS = LOOKUP.unreflectGetter(findField(PacketPlayOutMapChunkBulk.class, ChunkMap[].class, 0));
+
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException("Failed to resolve packet accessors.", e);
+        }
+    }
+
+    public static BlockPosition getPosition(PacketPlayOutBlockChange packet) {
+        try {
+            return (BlockPosition)BLOCK_CHANGE_GET_POSITION.invokeExact(packet);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void setPosition(PacketPlayOutBlockChange packet, BlockPosition position) {
+        try {
+            BLOCK_CHANGE_SET_POSITION.invokeExact(packet, position);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static IBlockData getBlockData(PacketPlayOutBlockChange packet) {
+        try {
+            return (IBlockData)BLOCK_CHANGE_GET_DATA.invokeExact(packet);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void setBlockData(PacketPlayOutBlockChange packet, IBlockData data) {
+        try {
+            BLOCK_CHANGE_SET_DATA.invokeExact(packet, data);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static ChunkCoordIntPair getCoords(PacketPlayOutMultiBlockChange packet) {
+        try {
+            return (ChunkCoordIntPair)MULTI_BLOCK_GET_COORDS.invokeExact(packet);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void setCoords(PacketPlayOutMultiBlockChange packet, ChunkCoordIntPair coords) {
+        try {
+            MULTI_BLOCK_SET_COORDS.invokeExact(packet, coords);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static MultiBlockChangeInfo[] getInfo(PacketPlayOutMultiBlockChange packet) {
+        try {
+            return (MultiBlockChangeInfo[])MULTI_BLOCK_GET_INFO.invokeExact(packet);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void setInfo(PacketPlayOutMultiBlockChange packet, MultiBlockChangeInfo[] info) {
+        try {
+            MULTI_BLOCK_SET_INFO.invokeExact(packet, info);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static MultiBlockChangeInfo newInfo(PacketPlayOutMultiBlockChange packet,
+                                               short position, IBlockData data) {
+        try {
+            return (MultiBlockChangeInfo)MULTI_BLOCK_NEW_INFO.invokeExact(packet, position, data);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static int getChunkX(PacketPlayOutMapChunk packet) {
+        try {
+            return (int)MAP_CHUNK_GET_X.invokeExact(packet);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static int getChunkZ(PacketPlayOutMapChunk packet) {
+        try {
+            return (int)MAP_CHUNK_GET_Z.invokeExact(packet);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static ChunkMap getChunkMap(PacketPlayOutMapChunk packet) {
+        try {
+            return (ChunkMap)MAP_CHUNK_GET_MAP.invokeExact(packet);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void setChunkMap(PacketPlayOutMapChunk packet, ChunkMap chunkMap) {
+        try {
+            MAP_CHUNK_SET_MAP.invokeExact(packet, chunkMap);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static boolean isContinuous(PacketPlayOutMapChunk packet) {
+        try {
+            return (boolean)MAP_CHUNK_GET_CONTINUOUS.invokeExact(packet);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static int[] getChunkX(PacketPlayOutMapChunkBulk packet) {
+        try {
+            return (int[])MAP_CHUNK_BULK_GET_X.invokeExact(packet);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static int[] getChunkZ(PacketPlayOutMapChunkBulk packet) {
+        try {
+            return (int[])MAP_CHUNK_BULK_GET_Z.invokeExact(packet);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static ChunkMap[] getChunkMaps(PacketPlayOutMapChunkBulk packet) {
+        try {
+            return (ChunkMap[])MAP_CHUNK_BULK_GET_MAPS.invokeExact(packet);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /*
+     * Find a non-static field by its type and its position among
+     * the fields of the same type.
+     */
+    private static Field findField(Class<?> type, Class<?> fieldType, int ordinal) {
+
+        int count = 0;
+
+        for (Field field : type.getDeclaredFields()) {
+
+            if (Modifier.isStatic(field.getModifiers()) || field.getType() != fieldType)
+                continue;
+
+            if (count == ordinal) {
+                field.setAccessible(true);
+                return field;
+            }
+
+            count++;
+        }
+
+        throw new RuntimeException("Failed to find field of type " + fieldType.getName() +
+                " in " + type.getName());
+    }
+}
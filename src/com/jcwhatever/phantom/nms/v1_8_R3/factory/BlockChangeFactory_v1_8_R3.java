@@ -30,7 +30,7 @@ import com.comphenix.protocol.reflect.StructureModifier;
 import com.jcwhatever.nucleus.utils.PreCon;
 import com.jcwhatever.phantom.Utils;
 import com.jcwhatever.phantom.packets.factory.IBlockChangeFactory;
-import net.minecraft.server.v1_8_R3.Block;
+import com.jcwhatever.phantom.nms.v1_8_R3.BlockStates;
 import net.minecraft.server.v1_8_R3.BlockPosition;
 import net.minecraft.server.v1_8_R3.IBlockData;
 import net.minecraft.server.v1_8_R3.PacketPlayOutBlockChange;
@@ -67,7 +67,7 @@ public class BlockChangeFactory_v1_8_R3 implements IBlockChangeFactory {
         BlockPosition position = new BlockPosition(_x, _y, _z);
 
         int id = Utils.getCombinedId(_material, _meta);
-        IBlockData blockData = Block.getByCombinedId(id);
+        IBlockData blockData = BlockStates.getBlockData(id);
         if (blockData == null)
             throw new IllegalArgumentException("Failed to create block data.");
 
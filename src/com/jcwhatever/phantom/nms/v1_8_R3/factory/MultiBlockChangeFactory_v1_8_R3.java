@@ -35,14 +35,17 @@ import com.jcwhatever.phantom.IPhantomChunk;
 import com.jcwhatever.phantom.Utils;
 import com.jcwhatever.phantom.packets.factory.IMultiBlockChangeFactory;
 import com.jcwhatever.phantom.nms.v1_8_R3.MultiBlockChangeUtils;
-import net.minecraft.server.v1_8_R3.Block;
+import com.jcwhatever.phantom.nms.v1_8_R3.BlockStates;
 import net.minecraft.server.v1_8_R3.ChunkCoordIntPair;
+import net.minecraft.server.v1_8_R3.ChunkSection;
 import net.minecraft.server.v1_8_R3.IBlockData;
 import net.minecraft.server.v1_8_R3.Material;
+import net.minecraft.server.v1_8_R3.MinecraftServer;
 import net.minecraft.server.v1_8_R3.PacketPlayOutMultiBlockChange;
 import net.minecraft.server.v1_8_R3.PacketPlayOutMultiBlockChange.MultiBlockChangeInfo;
 import org.bukkit.Chunk;
 import org.bukkit.World;
+import org.bukkit.craftbukkit.v1_8_R3.CraftChunk;
 
 import java.util.Iterator;
 
@@ -54,9 +57,16 @@ public class MultiBlockChangeFactory_v1_8_R3 implements IMultiBlockChangeFactory
     private final ChunkCoordIntPair _nmsCoords;
 
     private short[] _blockPositions;
-    private IPhantomBlock[] _blockInfo;
     private IBlockData[] _blockData;
 
+    // finished packets indexed by the ignore air flag. The factory is replaced
+    // when the phantom chunk changes so the packets are shared by all viewers.
+    private final PacketContainer[] _packets = new PacketContainer[2];
+
+    // world block packet, shared by players restored during the same tick
+    private PacketContainer _restorePacket;
+    private int _restoreTick = -1;
+
     public MultiBlockChangeFactory_v1_8_R3(World world, ICoords2Di coords, IPhantomChunk chunkData) {
         PreCon.notNull(world);
         PreCon.notNull(coords);
@@ -68,7 +78,6 @@ public class MultiBlockChangeFactory_v1_8_R3 implements IMultiBlockChangeFactory
 
         _blockPositions = new short[chunkData.totalBlocks()];
         _blockData = new IBlockData[chunkData.totalBlocks()];
-        _blockInfo = new IPhantomBlock[chunkData.totalBlocks()];
 
         for (int i=0; i < chunkData.totalBlocks(); i++) {
             IPhantomBlock block = iterator.next();
@@ -87,14 +96,13 @@ public class MultiBlockChangeFactory_v1_8_R3 implements IMultiBlockChangeFactory
             position = setValue(position, z, 8,  0x00000F00);
 
             _blockPositions[i] = (short)position;
-            _blockInfo[i] = block;
 
             // create block info integer
             int data = 0;
             data = setValue(data, b,  0, 0x00000FFF);
             data = setValue(data, m, 12, 0x0000F000);
 
-            _blockData[i] = Block.getByCombinedId(data);
+            _blockData[i] = BlockStates.getBlockData(data);
         }
     }
 
@@ -102,6 +110,22 @@ public class MultiBlockChangeFactory_v1_8_R3 implements IMultiBlockChangeFactory
     @Override
     public PacketContainer createPacket(boolean ignoreAir) {
 
+        int index = ignoreAir ? 1 : 0;
+
+        PacketContainer packet = _packets[index];
+        if (packet == null) {
+            packet = buildPacket(ignoreAir);
+            _packets[index] = packet;
+        }
+
+        return packet;
+    }
+
+    /*
+     * Build a packet containing the phantom blocks.
+     */
+    private PacketContainer buildPacket(boolean ignoreAir) {
+
         int totalBlocks = _blockData.length;
 
         PacketPlayOutMultiBlockChange packet = new PacketPlayOutMultiBlockChange();
@@ -126,25 +150,73 @@ public class MultiBlockChangeFactory_v1_8_R3 implements IMultiBlockChangeFactory
 
     @Override
     public PacketContainer createPacket(Chunk chunk) {
+        PreCon.notNull(chunk);
+
+        int tick = MinecraftServer.currentTick;
+
+        if (_restorePacket != null && _restoreTick == tick)
+            return _restorePacket;
+
         int totalBlocks = _blockData.length;
 
+        // read the block ID's directly from the chunk sections
+        ChunkSection[] sections = ((CraftChunk)chunk).getHandle().getSections();
+
         PacketPlayOutMultiBlockChange packet = new PacketPlayOutMultiBlockChange();
         MultiBlockChangeInfo[] infoArray = new MultiBlockChangeInfo[totalBlocks];
 
         for(int i=0; i < totalBlocks; i++) {
 
-            IPhantomBlock blockInfo = _blockInfo[i];
+            int position = _blockPositions[i];
+
+            int x = (position >> 12) & 0xF;
+            int y = position & 0xFF;
+            int z = (position >> 8) & 0xF;
 
-            org.bukkit.block.Block block = chunk.getBlock(blockInfo.getX(), blockInfo.getY(), blockInfo.getZ());
-            int data = Utils.getCombinedId(block.getType().getId(), block.getData());
+            ChunkSection section = sections[y >> 4];
 
-            MultiBlockChangeInfo multiBlockChangeInfo = MultiBlockChangeUtils
-                    .create(packet, _blockPositions[i], Block.getByCombinedId(data));
+            // legacy ID's, (block ID << 4) | data
+            int legacyId = section != null
+                    ? section.getIdArray()[((y & 0xF) << 8) | (z << 4) | x]
+                    : 0;
+
+            MultiBlockChangeInfo multiBlockChangeInfo = MultiBlockChangeUtils.create(packet,
+                    _blockPositions[i], BlockStates.getBlockData(Utils.getCombinedIdFromLegacyId(legacyId)));
 
             infoArray[i] = multiBlockChangeInfo;
         }
 
-        MultiBlockChangeUtils.initPacket(packet, _nmsCoords, ArrayUtils.removeNull(infoArray));
+        MultiBlockChangeUtils.initPacket(packet, _nmsCoords, infoArray);
+
+        _restorePacket = PacketContainer.fromPacket(packet);
+        _restoreTick = tick;
+
+        return _restorePacket;
+    }
+
+    /**
+     * Create a multi block change packet from block positions and combined ID's.
+     *
+     * @param chunkX       The chunk X coordinates.
+     * @param chunkZ       The chunk Z coordinates.
+     * @param positions    The packed block positions.
+     * @param combinedIds  The combined ID's of the blocks.
+     * @param totalBlocks  The number of blocks to read from the arrays.
+     */
+    public static PacketContainer createPacket(int chunkX, int chunkZ,
+                                               short[] positions, int[] combinedIds, int totalBlocks) {
+        PreCon.notNull(positions);
+        PreCon.notNull(combinedIds);
+
+        PacketPlayOutMultiBlockChange packet = new PacketPlayOutMultiBlockChange();
+        MultiBlockChangeInfo[] infoArray = new MultiBlockChangeInfo[totalBlocks];
+
+        for (int i=0; i < totalBlocks; i++) {
+            infoArray[i] = MultiBlockChangeUtils.create(
+                    packet, positions[i], BlockStates.getBlockData(combinedIds[i]));
+        }
+
+        MultiBlockChangeUtils.initPacket(packet, new ChunkCoordIntPair(chunkX, chunkZ), infoArray);
 
         return PacketContainer.fromPacket(packet);
     }
@@ -25,14 +25,15 @@
 package com.jcwhatever.phantom.nms.v1_8_R3.packets;
 
 import com.comphenix.protocol.events.PacketContainer;
-import com.comphenix.protocol.reflect.StructureModifier;
 import com.jcwhatever.phantom.IPhantomBlock;
 import com.jcwhatever.phantom.Utils;
 import com.jcwhatever.phantom.nms.INmsHandler;
+import com.jcwhatever.phantom.nms.v1_8_R3.PacketAccessors;
 import com.jcwhatever.phantom.packets.AbstractPacket;
 import com.jcwhatever.phantom.packets.IBlockChangePacket;
-import net.minecraft.server.v1_8_R3.Block;
+import com.jcwhatever.phantom.nms.v1_8_R3.BlockStates;
 import net.minecraft.server.v1_8_R3.IBlockData;
+import net.minecraft.server.v1_8_R3.PacketPlayOutBlockChange;
 import org.bukkit.Material;
 
 /*
@@ -41,7 +42,7 @@ import org.bukkit.Material;
 public class BlockChangePacket_v1_8_R3 extends AbstractPacket implements IBlockChangePacket {
 
     private final INmsHandler _nms;
-    private final StructureModifier<Object> _objects;
+    private final PacketPlayOutBlockChange _handle;
     private final int _x;
     private final int _y;
     private final int _z;
@@ -52,7 +53,7 @@ public class BlockChangePacket_v1_8_R3 extends AbstractPacket implements IBlockC
 
         _nms = handler;
 
-         _objects = packet.getModifier();
+        _handle = (PacketPlayOutBlockChange)packet.getHandle();
 
         _x = x;
         _y = y;
@@ -65,7 +66,7 @@ public class BlockChangePacket_v1_8_R3 extends AbstractPacket implements IBlockC
         if (_nmsBlockData == null)
             return;
 
-        _objects.write(1, _nmsBlockData);
+        PacketAccessors.setBlockData(_handle, _nmsBlockData);
     }
 
     @Override
@@ -85,14 +86,14 @@ public class BlockChangePacket_v1_8_R3 extends AbstractPacket implements IBlockC
 
     @Override
     public Material getMaterial() {
-        int id = Block.getCombinedId(getNmsBlockData());
+        int id = BlockStates.getCombinedId(getNmsBlockData());
 
         return Utils.getMaterialFromCombinedId(id);
     }
 
     @Override
     public byte getData() {
-        int id = Block.getCombinedId(getNmsBlockData());
+        int id = BlockStates.getCombinedId(getNmsBlockData());
 
         return Utils.getDataFromCombinedId(id);
     }
@@ -101,7 +102,7 @@ public class BlockChangePacket_v1_8_R3 extends AbstractPacket implements IBlockC
     public void setBlock(Material material, byte meta) {
         int id = Utils.getCombinedId(material, meta);
 
-        IBlockData data = Block.getByCombinedId(id);
+        IBlockData data = BlockStates.getBlockData(id);
         if (data == null)
             throw new IllegalArgumentException("Failed to create block data.");
 
@@ -115,26 +116,17 @@ public class BlockChangePacket_v1_8_R3 extends AbstractPacket implements IBlockC
 
     @Override
     public BlockChangePacket_v1_8_R3 clonePacket() {
-        PacketContainer clone = Utils.clonePacket(_packet);
-        PacketContainer source = _packet;
+        PacketPlayOutBlockChange clone = new PacketPlayOutBlockChange();
 
-        StructureModifier<Object> cloneObj = clone.getModifier();
-        StructureModifier<Object> sourceObj = source.getModifier();
+        PacketAccessors.setPosition(clone, PacketAccessors.getPosition(_handle));
+        PacketAccessors.setBlockData(clone, PacketAccessors.getBlockData(_handle));
 
-        IBlockData nmsBlockData = (IBlockData)sourceObj.read(1);
-
-        int id = Block.getCombinedId(nmsBlockData);
-
-        IBlockData nmsCloneData = Block.getByCombinedId(id);
-
-        cloneObj.write(1, nmsCloneData);
-
-        return new BlockChangePacket_v1_8_R3(_nms, clone, _x, _y, _z);
+        return new BlockChangePacket_v1_8_R3(_nms, PacketContainer.fromPacket(clone), _x, _y, _z);
     }
 
     private IBlockData getNmsBlockData() {
         if (_nmsBlockData == null) {
-            _nmsBlockData = (IBlockData)_objects.read(1);
+            _nmsBlockData = PacketAccessors.getBlockData(_handle);
         }
         return _nmsBlockData;
     }
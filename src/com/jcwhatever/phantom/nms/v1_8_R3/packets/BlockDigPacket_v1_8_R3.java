@@ -25,10 +25,10 @@
 package com.jcwhatever.phantom.nms.v1_8_R3.packets;
 
 import com.comphenix.protocol.events.PacketContainer;
-import com.comphenix.protocol.reflect.StructureModifier;
 import com.jcwhatever.phantom.packets.IBlockDigPacket;
 import net.minecraft.server.v1_8_R3.BlockPosition;
 import net.minecraft.server.v1_8_R3.EnumDirection;
+import net.minecraft.server.v1_8_R3.PacketPlayInBlockDig;
 import net.minecraft.server.v1_8_R3.PacketPlayInBlockDig.EnumPlayerDigType;
 
 /*
@@ -36,7 +36,7 @@ import net.minecraft.server.v1_8_R3.PacketPlayInBlockDig.EnumPlayerDigType;
  */
 public class BlockDigPacket_v1_8_R3 implements IBlockDigPacket {
 
-    private final StructureModifier<Object> _objects;
+    private final PacketPlayInBlockDig _handle;
 
     private int _x;
     private int _y;
@@ -47,9 +47,9 @@ public class BlockDigPacket_v1_8_R3 implements IBlockDigPacket {
 
 
     public BlockDigPacket_v1_8_R3(PacketContainer packet) {
-        _objects = packet.getModifier();
+        _handle = (PacketPlayInBlockDig)packet.getHandle();
 
-        BlockPosition blockPosition = (BlockPosition)_objects.read(0);
+        BlockPosition blockPosition = _handle.a();
 
         _x = blockPosition.getX();
         _y = blockPosition.getY();
@@ -74,7 +74,7 @@ public class BlockDigPacket_v1_8_R3 implements IBlockDigPacket {
     @Override
     public Direction getDirection() {
         if (_direction == null) {
-            EnumDirection direction = (EnumDirection)_objects.read(1);
+            EnumDirection direction = _handle.b();
 
             switch (direction) {
                 case UP:
@@ -106,7 +106,7 @@ public class BlockDigPacket_v1_8_R3 implements IBlockDigPacket {
     public DigType getDigType() {
 
         if (_digType == null) {
-            EnumPlayerDigType digType = (EnumPlayerDigType) _objects.read(2);
+            EnumPlayerDigType digType = _handle.c();
             switch (digType) {
                 case START_DESTROY_BLOCK:
                     _digType = DigType.START_DESTROY_BLOCK;
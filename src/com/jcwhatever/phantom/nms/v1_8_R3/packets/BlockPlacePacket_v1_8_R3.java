@@ -25,9 +25,9 @@
 package com.jcwhatever.phantom.nms.v1_8_R3.packets;
 
 import com.comphenix.protocol.events.PacketContainer;
-import com.comphenix.protocol.reflect.StructureModifier;
 import com.jcwhatever.phantom.packets.IBlockPlacePacket;
 import net.minecraft.server.v1_8_R3.BlockPosition;
+import net.minecraft.server.v1_8_R3.PacketPlayInBlockPlace;
 import org.bukkit.craftbukkit.v1_8_R3.inventory.CraftItemStack;
 import org.bukkit.inventory.ItemStack;
 
@@ -36,7 +36,7 @@ import org.bukkit.inventory.ItemStack;
  */
 public class BlockPlacePacket_v1_8_R3 implements IBlockPlacePacket {
 
-    private final StructureModifier<Object> _objects;
+    private final PacketPlayInBlockPlace _handle;
 
     private final int _x;
     private final int _y;
@@ -47,9 +47,9 @@ public class BlockPlacePacket_v1_8_R3 implements IBlockPlacePacket {
 
     public BlockPlacePacket_v1_8_R3(PacketContainer packet) {
 
-        _objects = packet.getModifier();
+        _handle = (PacketPlayInBlockPlace)packet.getHandle();
 
-        BlockPosition blockPosition = (BlockPosition)_objects.read(0);
+        BlockPosition blockPosition = _handle.a();
 
         _x = blockPosition.getX();
         _y = blockPosition.getY();
@@ -74,8 +74,7 @@ public class BlockPlacePacket_v1_8_R3 implements IBlockPlacePacket {
     @Override
     public ItemStack getItemStack() {
         if (_itemStack == null) {
-            net.minecraft.server.v1_8_R3.ItemStack itemStack =
-                    (net.minecraft.server.v1_8_R3.ItemStack)_objects.read(2);
+            net.minecraft.server.v1_8_R3.ItemStack itemStack = _handle.getItemStack();
             _itemStack = CraftItemStack.asCraftMirror(itemStack);
         }
         return _itemStack;
@@ -84,7 +83,7 @@ public class BlockPlacePacket_v1_8_R3 implements IBlockPlacePacket {
     @Override
     public long timeStamp() {
         if (_timeStamp == -1) {
-            _timeStamp = (long)_objects.read(6);
+            _timeStamp = _handle.timestamp;
         }
         return _timeStamp;
     }
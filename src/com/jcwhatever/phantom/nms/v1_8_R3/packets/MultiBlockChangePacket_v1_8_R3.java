@@ -25,15 +25,14 @@
 package com.jcwhatever.phantom.nms.v1_8_R3.packets;
 
 import com.comphenix.protocol.events.PacketContainer;
-import com.comphenix.protocol.reflect.StructureModifier;
 import com.jcwhatever.phantom.Utils;
 import com.jcwhatever.phantom.nms.INmsHandler;
 import com.jcwhatever.phantom.packets.AbstractPacket;
 import com.jcwhatever.phantom.packets.IMultiBlockChangePacket;
 import com.jcwhatever.phantom.packets.PacketBlock;
 import com.jcwhatever.phantom.nms.v1_8_R3.MultiBlockChangeUtils;
-import net.minecraft.server.v1_8_R3.Block;
-import net.minecraft.server.v1_8_R3.BlockPosition;
+import com.jcwhatever.phantom.nms.v1_8_R3.PacketAccessors;
+import com.jcwhatever.phantom.nms.v1_8_R3.BlockStates;
 import net.minecraft.server.v1_8_R3.IBlockData;
 import net.minecraft.server.v1_8_R3.PacketPlayOutMultiBlockChange;
 import net.minecraft.server.v1_8_R3.PacketPlayOutMultiBlockChange.MultiBlockChangeInfo;
@@ -51,14 +50,14 @@ public class MultiBlockChangePacket_v1_8_R3 extends AbstractPacket implements IM
     private int _chunkZ;
     private MultiBlockChangeInfo[] _nmsBlockChanges;
     private PacketBlock[] _packetBlocks;
-    private StructureModifier<Object> _objects;
+    private final PacketPlayOutMultiBlockChange _handle;
 
     public MultiBlockChangePacket_v1_8_R3(INmsHandler handler, PacketContainer packet, int chunkX, int chunkZ) {
         super(packet);
 
         _nms = handler;
 
-        _objects = packet.getModifier();
+        _handle = (PacketPlayOutMultiBlockChange)packet.getHandle();
 
         _chunkX = chunkX;
         _chunkZ = chunkZ;
@@ -94,16 +93,18 @@ public class MultiBlockChangePacket_v1_8_R3 extends AbstractPacket implements IM
 
         for (int i=0; i < _packetBlocks.length; i++) {
 
-            short blockPosition = array[i].b();
-
             PacketBlock packetBlock = _packetBlocks[i];
+            if (!packetBlock.isChanged())
+                continue;
+
+            short blockPosition = array[i].b();
 
             int id = Utils.getCombinedId(packetBlock.getMaterial(), packetBlock.getData());
 
-            IBlockData nmsBlockData = Block.getByCombinedId(id);
+            IBlockData nmsBlockData = BlockStates.getBlockData(id);
 
             MultiBlockChangeInfo blockChangeInfo = MultiBlockChangeUtils.create(
-                    (PacketPlayOutMultiBlockChange) _packet.getHandle(), blockPosition, nmsBlockData
+                    _handle, blockPosition, nmsBlockData
             );
 
             array[i] = blockChangeInfo;
@@ -111,11 +112,23 @@ public class MultiBlockChangePacket_v1_8_R3 extends AbstractPacket implements IM
     }
 
     @Override
-    public MultiBlockChangePacket_v1_8_R3 clonePacket() {
+    public boolean isChanged() {
 
-        PacketContainer clone = Utils.clonePacket(_packet);
+        if (_packetBlocks == null)
+            return false;
 
-        StructureModifier<Object> cloneObj = clone.getModifier();
+        for (PacketBlock packetBlock : _packetBlocks) {
+            if (packetBlock.isChanged())
+                return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public MultiBlockChangePacket_v1_8_R3 clonePacket() {
+
+        PacketPlayOutMultiBlockChange clone = new PacketPlayOutMultiBlockChange();
 
         MultiBlockChangeInfo[] array = getNmsBlockChanges();
         MultiBlockChangeInfo[] newArray = new MultiBlockChangeInfo[array.length];
@@ -127,16 +140,23 @@ public class MultiBlockChangePacket_v1_8_R3 extends AbstractPacket implements IM
             short blockPosition = info.b();
             IBlockData nmsBlockData = info.c();
 
+            // include changes that have not been saved
+            if (_packetBlocks != null && _packetBlocks[i].isChanged()) {
+                PacketBlock packetBlock = _packetBlocks[i];
+                nmsBlockData = BlockStates.getBlockData(
+                        Utils.getCombinedId(packetBlock.getMaterial(), packetBlock.getData()));
+            }
+
             MultiBlockChangeInfo multiBlockChangeInfo = MultiBlockChangeUtils.create(
-                    (PacketPlayOutMultiBlockChange) clone.getHandle(), blockPosition, nmsBlockData
+                    clone, blockPosition, nmsBlockData
             );
 
             newArray[i] = multiBlockChangeInfo;
         }
 
-        cloneObj.write(1, newArray);
+        MultiBlockChangeUtils.initPacket(clone, PacketAccessors.getCoords(_handle), newArray);
 
-        return new MultiBlockChangePacket_v1_8_R3(_nms, clone, _chunkX, _chunkZ);
+        return new MultiBlockChangePacket_v1_8_R3(_nms, PacketContainer.fromPacket(clone), _chunkX, _chunkZ);
     }
 
     @Override
@@ -152,14 +172,15 @@ public class MultiBlockChangePacket_v1_8_R3 extends AbstractPacket implements IM
 
                 MultiBlockChangeInfo info = array[i];
 
-                BlockPosition nmsPosition = info.a(); //block position
+                // decode the packed position instead of allocating a BlockPosition
+                short position = info.b();
                 IBlockData nmsBlockData = info.c(); // IBlockData
 
-                int x = nmsPosition.getX();
-                int y = nmsPosition.getY();
-                int z = nmsPosition.getZ();
+                int x = (_chunkX << 4) + ((position >> 12) & 0xF);
+                int y = position & 0xFF;
+                int z = (_chunkZ << 4) + ((position >> 8) & 0xF);
 
-                int combinedId = Block.getCombinedId(nmsBlockData);
+                int combinedId = BlockStates.getCombinedId(nmsBlockData);
 
                 Material material = Utils.getMaterialFromCombinedId(combinedId);
                 byte meta = Utils.getDataFromCombinedId(combinedId);
@@ -194,7 +215,7 @@ public class MultiBlockChangePacket_v1_8_R3 extends AbstractPacket implements IM
 
     private MultiBlockChangeInfo[] getNmsBlockChanges() {
         if (_nmsBlockChanges == null) {
-            _nmsBlockChanges = (MultiBlockChangeInfo[])_objects.read(1);
+            _nmsBlockChanges = PacketAccessors.getInfo(_handle);
         }
         return _nmsBlockChanges;
     }
@@ -41,6 +41,18 @@ public interface IMultiBlockChangePacket extends IPacket, ICoords2Di, Iterable<P
      */
     int getChunkZ();
 
+    /**
+     * Determine if the value of any block in the packet has been changed.
+     */
+    boolean isChanged();
+
+    /**
+     * Clone the packet.
+     *
+     * <p>The clone contains the current values of the blocks, including
+     * changes that have not been saved. The encapsulated packet is not
+     * modified.</p>
+     */
     @Override
     IMultiBlockChangePacket clonePacket();
 
@@ -36,6 +36,7 @@ public class PacketBlock {
     private int _z;
     private Material _material;
     private byte _data;
+    private boolean _isChanged;
 
     /**
      * Constructor.
@@ -74,8 +75,20 @@ public class PacketBlock {
         return _data;
     }
 
+    /**
+     * Determine if the block was changed by {@link #setBlock}.
+     */
+    public boolean isChanged() {
+        return _isChanged;
+    }
+
     public void setBlock(Material material, int meta) {
+
+        if (_material == material && _data == (byte)meta)
+            return;
+
         _material = material;
         _data = (byte)meta;
+        _isChanged = true;
     }
 }
@@ -33,7 +33,24 @@ import org.bukkit.Chunk;
  */
 public interface IMultiBlockChangeFactory {
 
+    /**
+     * Get a packet containing the phantom blocks.
+     *
+     * <p>The packet is built once per ignore air value and the same instance is
+     * returned to every caller. The returned packet must not be modified.</p>
+     *
+     * @param ignoreAir  True to leave out phantom air blocks.
+     */
     PacketContainer createPacket(boolean ignoreAir);
 
+    /**
+     * Create a packet containing the current world blocks at the
+     * positions of the phantom blocks.
+     *
+     * <p>The packet is shared by callers during the same server tick and
+     * must not be modified.</p>
+     *
+     * @param chunk  The world chunk.
+     */
     PacketContainer createPacket(Chunk chunk);
 }
@@ -32,6 +32,7 @@ import com.jcwhatever.phantom.PhantomPackets;
 import com.jcwhatever.phantom.blocks.regions.PhantomRegion;
 import com.jcwhatever.phantom.entities.PhantomEntity;
 import com.jcwhatever.phantom.light.LightManager;
+import com.jcwhatever.phantom.light.LightMode;
 import com.jcwhatever.phantom.light.LightSource;
 
 import org.bukkit.Location;
@@ -104,6 +105,35 @@ public class PhantomScriptApi implements IDisposable {
         return lightSource;
     }
 
+    /**
+     * Create a phantom light source that is only written into chunk packets.
+     *
+     * <p>If the light source already exists, the intensity is updated.</p>
+     *
+     * @param name       The name of the light source.
+     * @param location   The location of the light source.
+     * @param intensity  The intensity of the light. (0-15)
+     *
+     * @return  The light source.
+     */
+    public LightSource phantomLight(String name, Location location, int intensity) {
+        PreCon.notNullOrEmpty(name, "name");
+        PreCon.notNull(location, "location");
+        PreCon.notNull(location.getWorld(), "location world");
+        PreCon.positiveNumber(intensity, "intensity");
+
+        LightManager manager = PhantomPackets.getLightManager();
+        LightSource lightSource = manager.get(name);
+        if (lightSource != null) {
+            lightSource.setIntensity(intensity);
+        }
+        else {
+            lightSource = manager.create(name, location, intensity, LightMode.PHANTOM);
+        }
+        _lights.put(lightSource, null);
+        return lightSource;
+    }
+
     /**
      * Remove a light source.
      *